@@ -25,17 +25,17 @@ abstract class AbstractStatement implements Statement {
     }
 
     @Override
-    public final void addBatch(String sql) throws SQLException {
+    public void addBatch(String sql) throws SQLException {
         throw HiveDriver.notImplemented(this.getClass());
     }
 
     @Override
-    public final void clearBatch() throws SQLException {
+    public void clearBatch() throws SQLException {
         throw HiveDriver.notImplemented(this.getClass());
     }
 
     @Override
-    public final int[] executeBatch() throws SQLException {
+    public int[] executeBatch() throws SQLException {
         throw HiveDriver.notImplemented(this.getClass());
     }
 
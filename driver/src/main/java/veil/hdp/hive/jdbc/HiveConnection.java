@@ -16,17 +16,29 @@
 
 package veil.hdp.hive.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.thrift.ThriftOperation;
 import veil.hdp.hive.jdbc.thrift.ThriftSession;
 import veil.hdp.hive.jdbc.utils.DriverUtils;
 import veil.hdp.hive.jdbc.utils.QueryUtils;
+import veil.hdp.hive.jdbc.utils.ThriftUtils;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
 
 import java.sql.*;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class HiveConnection extends AbstractConnection {
 
@@ -37,12 +49,22 @@ public class HiveConnection extends AbstractConnection {
     // constructor
     private ThriftSession thriftSession;
     private final AtomicBoolean closed = new AtomicBoolean(true);
+    private final Cache<String, StatementTemplate> statementCache;
+    // when set, the session is handed back instead of closed
+    private final Consumer<ThriftSession> releaseHook;
+    // open statements; closed before a pooled session is handed back so the next borrower does not inherit their operations
+    private final Set<HiveStatement> statements = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     // public getter & setter
     private SQLWarning sqlWarning;
 
-    private HiveConnection(ThriftSession thriftSession) {
+    private HiveConnection(ThriftSession thriftSession, Consumer<ThriftSession> releaseHook) {
         this.thriftSession = thriftSession;
+        this.releaseHook = releaseHook;
+
+        int statementCacheSize = HiveDriverProperty.STATEMENT_CACHE_SIZE.getInt(thriftSession.getProperties());
+
+        statementCache = statementCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(statementCacheSize).build() : null;
 
         closed.set(false);
     }
@@ -62,8 +84,56 @@ public class HiveConnection extends AbstractConnection {
 
             log.trace("attempting to close {}", this.getClass().getName());
 
-            DriverUtils.close(thriftSession);
+            if (releaseHook != null) {
+                for (HiveStatement statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException | RuntimeException e) {
+                        log.warn("unable to close statement: {}", e.getMessage(), e);
+                    }
+                }
+
+                releaseHook.accept(thriftSession);
+            } else {
+                DriverUtils.close(thriftSession);
+            }
+
+            if (statementCache != null) {
+                statementCache.invalidateAll();
+            }
+
+        }
+    }
+
+    void register(HiveStatement statement) {
+        statements.add(statement);
+    }
+
+    void unregister(HiveStatement statement) {
+        statements.remove(statement);
+    }
+
+    private StatementTemplate getStatementTemplate(String sql) throws SQLException {
+
+        String trimmed = StringUtils.trim(sql);
+
+        if (statementCache == null) {
+            return StatementTemplate.builder().sql(trimmed).build();
+        }
+
+        try {
+            return statementCache.get(trimmed, () -> StatementTemplate.builder().sql(trimmed).build());
+        } catch (ExecutionException e) {
+            throw new HiveSQLException(e.getMessage(), e.getCause());
+        }
+    }
 
+    /**
+     * Removes a template from the statement cache, unless the sql has since been cached with another template.
+     */
+    void evictStatementTemplate(StatementTemplate template) {
+        if (statementCache != null) {
+            statementCache.asMap().remove(template.getSql(), template);
         }
     }
 
@@ -82,17 +152,17 @@ public class HiveConnection extends AbstractConnection {
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return HivePreparedStatement.builder().connection(this).sql(sql).holdability(getHoldability()).build();
+        return HivePreparedStatement.builder().connection(this).template(getStatementTemplate(sql)).holdability(getHoldability()).build();
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return HivePreparedStatement.builder().connection(this).sql(sql).type(resultSetType).concurrency(resultSetConcurrency).holdability(getHoldability()).build();
+        return HivePreparedStatement.builder().connection(this).template(getStatementTemplate(sql)).type(resultSetType).concurrency(resultSetConcurrency).holdability(getHoldability()).build();
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return HivePreparedStatement.builder().connection(this).sql(sql).type(resultSetType).concurrency(resultSetConcurrency).holdability(resultSetHoldability).build();
+        return HivePreparedStatement.builder().connection(this).template(getStatementTemplate(sql)).type(resultSetType).concurrency(resultSetConcurrency).holdability(resultSetHoldability).build();
     }
 
     @Override
@@ -199,13 +269,33 @@ public class HiveConnection extends AbstractConnection {
         QueryUtils.setDatabaseSchema(this, schema);
     }
 
+    /**
+     * Restores the database, configuration, resources and temporary functions changed by statements executed on this connection, running only the
+     * statements needed to undo those changes.  Keys that were undefined before they were first {@code SET} cannot be unset; everything else is
+     * restored and then an exception names them.
+     */
+    public void resetSession() throws SQLException {
+        try {
+            thriftSession.reset();
+        } catch (HiveException e) {
+            throw new HiveSQLException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public boolean isValid(int timeout) throws SQLException {
         if (timeout < 0) {
             throw new SQLDataException(MessageFormat.format("timeout must be greater than or equal to 0.  Current value is {0}", timeout));
         }
 
-        return thriftSession != null && thriftSession.isValid();
+        if (isClosed() || thriftSession == null || !thriftSession.isValid()) {
+            return false;
+        }
+
+        // a timeout of 0 means no timeout of the caller's; the ping still applies its own default bound
+        long deadline = timeout > 0 ? WatchdogUtils.deadline(timeout, TimeUnit.SECONDS) : ThriftOperation.NO_DEADLINE;
+
+        return ThriftUtils.ping(thriftSession, deadline);
     }
 
     @Override
@@ -228,6 +318,8 @@ public class HiveConnection extends AbstractConnection {
     public static class HiveConnectionBuilder implements Builder<HiveConnection> {
 
         private Properties properties;
+        private ThriftSession thriftSession;
+        private Consumer<ThriftSession> releaseHook;
 
         private HiveConnectionBuilder() {
         }
@@ -238,13 +330,31 @@ public class HiveConnection extends AbstractConnection {
         }
 
 
+        /**
+         * Wraps an already open session rather than opening a new one.
+         */
+        public HiveConnectionBuilder thriftSession(ThriftSession thriftSession) {
+            this.thriftSession = thriftSession;
+            return this;
+        }
+
+        /**
+         * Called with the session when the connection is closed, instead of closing the session.
+         */
+        public HiveConnectionBuilder releaseHook(Consumer<ThriftSession> releaseHook) {
+            this.releaseHook = releaseHook;
+            return this;
+        }
+
         public HiveConnection build() {
 
-            ThriftSession thriftSession = ThriftSession.builder()
-                    .properties(properties)
-                    .build();
+            if (thriftSession == null) {
+                thriftSession = ThriftSession.builder()
+                        .properties(properties)
+                        .build();
+            }
 
-            return new HiveConnection(thriftSession);
+            return new HiveConnection(thriftSession, releaseHook);
         }
 
 
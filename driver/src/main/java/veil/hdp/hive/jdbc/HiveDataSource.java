@@ -20,11 +20,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.security.KerberosMode;
 import veil.hdp.hive.jdbc.security.SaslQop;
+import veil.hdp.hive.jdbc.utils.ConnectUtils;
 import veil.hdp.hive.jdbc.utils.DriverUtils;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class HiveDataSource extends AbstractDataSource {
 
@@ -394,7 +396,21 @@ public class HiveDataSource extends AbstractDataSource {
         return driver.connect(url, properties);
     }
 
-    private Properties buildProperties() {
+    /**
+     * Opens a connection, as {@link #getConnection()} would, on a thread from a pool shared by the JVM.
+     */
+    public CompletableFuture<Connection> connectAsync() {
+        return ConnectUtils.connectAsync(this::getConnection);
+    }
+
+    /**
+     * Opens a connection, as {@link #getConnection(String, String)} would, on a thread from a pool shared by the JVM.
+     */
+    public CompletableFuture<Connection> connectAsync(String username, String password) {
+        return ConnectUtils.connectAsync(() -> getConnection(username, password));
+    }
+
+    Properties buildProperties() {
         Properties properties = new Properties();
 
         HiveDriverProperty.HOST_NAME.set(properties, host);
@@ -19,6 +19,7 @@ package veil.hdp.hive.jdbc;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.utils.ConnectUtils;
 import veil.hdp.hive.jdbc.utils.Constants;
 import veil.hdp.hive.jdbc.utils.DriverUtils;
 import veil.hdp.hive.jdbc.utils.PropertyUtils;
@@ -27,6 +28,7 @@ import veil.hdp.hive.jdbc.utils.VersionUtils;
 import java.sql.*;
 import java.text.MessageFormat;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class HiveDriver implements Driver {
 
@@ -60,12 +62,17 @@ public class HiveDriver implements Driver {
 
     private static Connection connect(Properties properties) {
 
+        configure(properties);
+
+        return HiveConnection.builder().properties(properties).build();
+    }
+
+    static void configure(Properties properties) {
+
         PropertyUtils.printProperties(properties);
 
         System.setProperty(Constants.SUN_SECURITY_KRB5_DEBUG, HiveDriverProperty.KERBEROS_DEBUG_ENABLED.get(properties));
         System.setProperty(Constants.JAVAX_SECURITY_AUTH_USE_SUBJECT_CREDS_ONLY, HiveDriverProperty.KERBEROS_USE_SUBJECT_CREDENTIALS_ONLY.get(properties));
-
-        return HiveConnection.builder().properties(properties).build();
     }
 
 
@@ -79,12 +86,28 @@ public class HiveDriver implements Driver {
 
         if (acceptsURL(url)) {
             Properties properties = DriverUtils.buildProperties(url, info);
+
+            if (HiveDriverProperty.CONNECT_HEDGING_ENABLED.getBoolean(properties)) {
+                String hedgeUrl = url;
+
+                return ConnectUtils.connectHedged(properties, excluded -> DriverUtils.buildProperties(hedgeUrl, info, excluded), HiveDriver::connect);
+            }
+
             return connect(properties);
         }
 
         return null;
     }
 
+    /**
+     * Opens the connection on a thread from a pool shared by the JVM.
+     *
+     * @return a future completed with the connection, or with null if the url is not accepted, or exceptionally if the connection fails
+     */
+    public CompletableFuture<Connection> connectAsync(String url, Properties info) {
+        return ConnectUtils.connectAsync(() -> connect(url, info));
+    }
+
     @Override
     public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
         return DriverUtils.buildDriverPropertyInfo(url, info);
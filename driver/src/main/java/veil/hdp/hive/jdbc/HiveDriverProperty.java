@@ -19,6 +19,7 @@ package veil.hdp.hive.jdbc;
 import org.apache.commons.lang3.StringUtils;
 import veil.hdp.hive.jdbc.security.KerberosMode;
 import veil.hdp.hive.jdbc.security.SaslQop;
+import veil.hdp.hive.jdbc.utils.HostSelectionUtils;
 import veil.hdp.hive.jdbc.utils.PropertyUtils;
 
 import java.sql.DriverPropertyInfo;
@@ -55,6 +56,9 @@ public enum HiveDriverProperty {
     // make sure to spell out differences in readme; look at *.thrift
     THRIFT_PROTOCOL_VERSION("thriftVersion", PropertyUtils.getInstance().getValue("thrift.protocol.version.default"), null, null),
 
+    // in milliseconds.  how long the protocol version a server accepted is remembered for later connections; 0 disables
+    PROTOCOL_VERSION_CACHE_TTL("protocolVersionCacheTtl", "3600000", null, null),
+
     // in milliseconds. time code will wait to open thrift transport
     THRIFT_TRANSPORT_TIMEOUT("thriftTransportTimeout", "10000", null, null),
 
@@ -62,6 +66,36 @@ public enum HiveDriverProperty {
 
     FETCH_SERVER_LOGS("fetchLogs", Boolean.FALSE.toString(), null, null),
 
+    // max transports serving one connection's session; statements running concurrently on the connection each use their own
+    TRANSPORT_POOL_SIZE("transportPoolSize", "1", null, null),
+
+    // times a metadata call is retried on a reestablished session after a transport failure
+    RECONNECT_ATTEMPTS("reconnectAttempts", "3", null, null),
+
+    // in milliseconds.  wait before the first reconnect attempt, doubled for each later attempt
+    RECONNECT_BACKOFF("reconnectBackoff", "500", null, null),
+
+    // retrieve result set metadata and the first page of results without waiting on each response in turn
+    PIPELINED_FETCH_ENABLED("pipelinedFetch", Boolean.FALSE.toString(), null, null),
+
+    // max rows combined into a single multi-row insert by PreparedStatement.executeBatch()
+    BATCH_MAX_ROWS("batchMaxRows", "1000", null, null),
+
+    // max size in bytes of a single multi-row insert; 0 means no limit
+    BATCH_MAX_BYTES("batchMaxBytes", "1048576", null, null),
+
+    // max statements from Statement.executeBatch() running on HS2 at the same time
+    BATCH_CONCURRENCY("batchConcurrency", "8", null, null),
+
+    // number of parsed prepared statements kept per connection; 0 disables the cache
+    STATEMENT_CACHE_SIZE("statementCacheSize", "250", null, null),
+
+    // in milliseconds.  interval at which idle sessions are pinged to keep them and their transports alive; 0 disables
+    KEEP_ALIVE_INTERVAL("keepAliveInterval", "0", null, null),
+
+    // the user HS2 runs the session as; the authenticated user must be allowed to impersonate it
+    PROXY_USER("proxyUser", null, null, null, null, new String[]{"hive.server2.proxy.user"}),
+
 
     /***************************************************
      *  BINARY
@@ -71,6 +105,20 @@ public enum HiveDriverProperty {
 
     THRIFT_CONNECTION_TIMEOUT("thriftConnectionTimeout", "0", null, null),
 
+    // use the NIO socket transport instead of TSocket; ignored when ssl is enabled
+    THRIFT_SOCKET_NIO_ENABLED("thriftSocketNio", Boolean.FALSE.toString(), null, null),
+
+    // size in bytes of each of the NIO transport's pooled read and write buffers
+    THRIFT_SOCKET_BUFFER_SIZE("thriftSocketBufferSize", "65536", null, null),
+
+    // SO_RCVBUF / SO_SNDBUF in bytes; 0 leaves the OS default
+    SOCKET_RECEIVE_BUFFER_SIZE("socketReceiveBufferSize", "0", null, null),
+    SOCKET_SEND_BUFFER_SIZE("socketSendBufferSize", "0", null, null),
+
+    SOCKET_TCP_NO_DELAY("tcpNoDelay", Boolean.TRUE.toString(), null, null),
+
+    SOCKET_KEEP_ALIVE("socketKeepAlive", Boolean.FALSE.toString(), null, null),
+
     /***************************************************
      *  SSL
      ***************************************************/
@@ -97,12 +145,33 @@ public enum HiveDriverProperty {
     HTTP_POOL_MAX_TOTAL("httpPoolMax", "100", null, null),
     HTTP_POOL_MAX_PER_ROUTE("httpPoolMaxRoute", "20", null, null),
 
+    // in milliseconds.  pooled connections idle this long are closed by a background thread; 0 disables
+    HTTP_POOL_IDLE_TIMEOUT("httpPoolIdleTimeout", "60000", null, null),
+
+    // opt in: share one http client and connection pool between all connections to the same endpoint; requires httpStreaming
+    HTTP_CLIENT_SHARED("httpClientShared", Boolean.FALSE.toString(), null, null),
+
+    // ask for gzip/deflate responses and decode them transparently
+    HTTP_COMPRESSION_ENABLED("httpCompression", Boolean.TRUE.toString(), null, null),
+
+    // request bodies of at least this many bytes are sent gzipped; 0 disables
+    HTTP_REQUEST_COMPRESSION_THRESHOLD("httpRequestCompressionThreshold", "0", null, null),
+
+    // opt in: stream request and response bodies instead of buffering whole messages as THttpClient does
+    HTTP_STREAMING_ENABLED("httpStreaming", Boolean.FALSE.toString(), null, null),
+
+    // size in bytes of the request chunks and the response read buffer of the streaming transport
+    HTTP_BUFFER_SIZE("httpBufferSize", "65536", null, null),
+
     // https://issues.apache.org/jira/browse/HIVE-9709
     HTTP_COOKIE_REPLAY_ENABLED("httpCookieReplayEnabled", Boolean.TRUE.toString(), null, null, null, new String[]{"cookieAuth"}),
 
     // todo: this seems pretty hardcoded on the server side.  not sure how/why this would ever change
     HTTP_COOKIE_NAME("httpCookieName", "hive.server2.auth", null, null, null, new String[]{"cookieName"}),
 
+    // replay the auth cookie of one connection on every connection with the same kerberos identity and endpoint
+    HTTP_COOKIE_SHARED("httpCookieShared", Boolean.TRUE.toString(), null, null),
+
     /***************************************************
      *  ZOOKEEPER
      ***************************************************/
@@ -112,6 +181,24 @@ public enum HiveDriverProperty {
 
     ZOOKEEPER_DISCOVERY_NAMESPACE("zkNamespace", "hiveserver2", null, null, null, new String[]{"zooKeeperNamespace"}),
     ZOOKEEPER_DISCOVERY_RETRY("zkRetry", "1000", null, null),
+    // keep one zookeeper client per quorum and namespace with a watch on the registered servers instead of querying zookeeper on every connect
+    ZOOKEEPER_DISCOVERY_CACHE_ENABLED("zkCache", Boolean.TRUE.toString(), null, null),
+    // how a server is chosen from zookeeper or a multi-host url; a built-in policy name or the class name of a HostSelectionPolicy. the statistics driven policies are opt in
+    HOST_SELECTION_POLICY("hostSelectionPolicy", HostSelectionUtils.RANDOM, null, null),
+    // set from the url: the hosts of a multi-host url or the zookeeper quorum; pooled sessions and reconnects choose their host from it again
+    HOST_CANDIDATES("hostCandidates", null, null, null),
+    // opt in: consecutive failed or slow connects after which a host is avoided until a background probe succeeds; 0 disables the circuit breaker
+    CIRCUIT_BREAKER_FAILURES("circuitBreakerFailures", "0", null, null),
+    // opt in: connects slower than this many milliseconds count as failures; 0 only counts errors
+    CIRCUIT_BREAKER_SLOW_CONNECT("circuitBreakerSlowConnect", "0", null, null),
+    // milliseconds between probes of a host whose circuit is open
+    CIRCUIT_BREAKER_PROBE_INTERVAL("circuitBreakerProbeInterval", "30000", null, null),
+    // start a connect to a second host when the first is slower than usual and keep whichever connection opens first
+    CONNECT_HEDGING_ENABLED("connectHedging", Boolean.FALSE.toString(), null, null),
+    // percentile of the first host's recent connect times after which the second connect is started
+    CONNECT_HEDGE_PERCENTILE("connectHedgePercentile", "95", null, null),
+    // milliseconds to wait before the second connect while too few connects to the first host have been seen to compute the percentile
+    CONNECT_HEDGE_DELAY("connectHedgeDelay", "1000", null, null),
 
     /***************************************************
      *  KERBEROS
@@ -126,6 +213,14 @@ public enum HiveDriverProperty {
     KERBEROS_DEBUG_ENABLED("krb5Debug", Boolean.FALSE.toString(), null, null),
     // javax.security.auth.useSubjectCredsOnly; todo: i really don't get this property; see http://docs.oracle.com/javase/7/docs/technotes/guides/security/jgss/tutorials/BasicClientServer.html
     KERBEROS_USE_SUBJECT_CREDENTIALS_ONLY("krb5SubjectOnly", Boolean.FALSE.toString(), null, null),
+    // reuse the logged in subject across connections and renew its TGT in the background; applies to KERBEROS_MODE = OS, KEYTAB and PASSWORD
+    KERBEROS_SUBJECT_CACHE_ENABLED("krb5SubjectCache", Boolean.TRUE.toString(), null, null),
+    // a delegation token issued by HS2; when present it is used instead of a kerberos handshake
+    KERBEROS_DELEGATION_TOKEN("krb5DelegationToken", null, null, null),
+    // obtain a delegation token with the first kerberos connection of each principal and use it for the connections that follow
+    KERBEROS_DELEGATION_TOKEN_CACHE_ENABLED("krb5DelegationTokenCache", Boolean.FALSE.toString(), null, null),
+    // milliseconds between renewals of a cached delegation token
+    KERBEROS_DELEGATION_TOKEN_RENEW_INTERVAL("krb5DelegationTokenRenewInterval", "3600000", null, null),
 
     // Sasl.QOP
     SASL_QUALITY_OF_PROTECTION("saslQOP", SaslQop.AUTH.getValue(), null, "hive.server2.thrift.sasl.qop", new String[]{SaslQop.AUTH.getValue(), SaslQop.AUTH_INT.getValue(), SaslQop.AUTH_CONF.getValue()}, null),
@@ -234,7 +329,7 @@ public enum HiveDriverProperty {
         return aliases;
     }
 
-    String getHiveConfigurationKey() {
+    public String getHiveConfigurationKey() {
         return hiveConfigurationKey;
     }
 
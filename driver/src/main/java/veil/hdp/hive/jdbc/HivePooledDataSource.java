@@ -0,0 +1,286 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.thrift.ThriftProxySessionPool;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
+import veil.hdp.hive.jdbc.thrift.ThriftSessionPool;
+import veil.hdp.hive.jdbc.utils.DriverUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * A {@link HiveDataSource} that reuses HS2 sessions.  Closing a connection obtained from {@link #getConnection()} returns its session to the pool
+ * instead of closing it.  Connections from {@link #getProxyConnection(String)} run as a proxy user and come from a second pool that keeps sessions per user
+ * over one set of authenticated transports.  Pool statistics are available over JMX as {@code veil.hdp.hive.jdbc:type=SessionPool,name=<pool name>} and
+ * {@code veil.hdp.hive.jdbc:type=ProxySessionPool,name=<pool name>-proxy}.
+ */
+public class HivePooledDataSource extends HiveDataSource implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(HivePooledDataSource.class);
+
+    private String poolName;
+    private Integer minIdle;
+    private Integer maxPoolSize;
+    private Long idleTimeout;
+    private Long maxLifetime;
+    private Long connectionTimeout;
+    private Integer maxIdlePerUser;
+
+    private volatile ThriftSessionPool pool;
+    private volatile ThriftProxySessionPool proxyPool;
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public Integer getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(Integer minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public Integer getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(Integer maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public Long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(Long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public Long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(Long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public Integer getMaxIdlePerUser() {
+        return maxIdlePerUser;
+    }
+
+    public void setMaxIdlePerUser(Integer maxIdlePerUser) {
+        this.maxIdlePerUser = maxIdlePerUser;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+
+        ThriftSessionPool sessionPool = getPool();
+
+        ThriftSession session;
+
+        try {
+            session = sessionPool.borrow();
+        } catch (HiveTimeoutException e) {
+            throw new SQLTimeoutException(e.getMessage(), e);
+        }
+
+        return HiveConnection.builder().thriftSession(session).releaseHook(sessionPool::release).build();
+    }
+
+    /**
+     * Connections for credentials other than the data source's own are not pooled.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (Objects.equals(username, getUser()) && Objects.equals(password, getPassword())) {
+            return getConnection();
+        }
+
+        return super.getConnection(username, password);
+    }
+
+    /**
+     * Returns a connection whose session HS2 runs as the given user.  The data source's own user must be allowed to impersonate it.  Switching to a user
+     * without an idle session costs one {@code OpenSession} call over transports that are already authenticated.
+     *
+     * @param proxyUser the user to run as; see {@link HiveDriverProperty#PROXY_USER}
+     */
+    public Connection getProxyConnection(String proxyUser) throws SQLException {
+
+        ThriftProxySessionPool sessionPool = getProxyPool();
+
+        ThriftSession session;
+
+        try {
+            session = sessionPool.borrow(proxyUser);
+        } catch (HiveTimeoutException e) {
+            throw new SQLTimeoutException(e.getMessage(), e);
+        }
+
+        return HiveConnection.builder().thriftSession(session).releaseHook(sessionPool::release).build();
+    }
+
+    private ThriftSessionPool getPool() {
+        ThriftSessionPool current = pool;
+
+        if (current == null) {
+            synchronized (this) {
+                current = pool;
+
+                if (current == null) {
+                    current = buildPool();
+                    pool = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private ThriftProxySessionPool getProxyPool() {
+        ThriftProxySessionPool current = proxyPool;
+
+        if (current == null) {
+            synchronized (this) {
+                current = proxyPool;
+
+                if (current == null) {
+                    current = buildProxyPool();
+                    proxyPool = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private Properties buildPoolProperties() {
+        Properties supplied = buildProperties();
+
+        Properties properties = DriverUtils.buildProperties(DriverUtils.buildUrl(supplied), supplied);
+
+        HiveDriver.configure(properties);
+
+        return properties;
+    }
+
+    private String buildPoolName(Properties properties) {
+        return poolName != null ? poolName : "hive-" + HiveDriverProperty.HOST_NAME.get(properties) + '-' + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    private ThriftSessionPool buildPool() {
+        Properties properties = buildPoolProperties();
+
+        String name = buildPoolName(properties);
+
+        log.debug("starting session pool [{}]", name);
+
+        ThriftSessionPool.ThriftSessionPoolBuilder builder = ThriftSessionPool.builder().name(name).properties(properties);
+
+        if (minIdle != null) {
+            builder.minIdle(minIdle);
+        }
+
+        if (maxPoolSize != null) {
+            builder.maxPoolSize(maxPoolSize);
+        }
+
+        if (idleTimeout != null) {
+            builder.idleTimeout(idleTimeout);
+        }
+
+        if (maxLifetime != null) {
+            builder.maxLifetime(maxLifetime);
+        }
+
+        if (connectionTimeout != null) {
+            builder.connectionTimeout(connectionTimeout);
+        }
+
+        return builder.build();
+    }
+
+    private ThriftProxySessionPool buildProxyPool() {
+        Properties properties = buildPoolProperties();
+
+        String name = buildPoolName(properties) + "-proxy";
+
+        log.debug("starting proxy session pool [{}]", name);
+
+        ThriftProxySessionPool.ThriftProxySessionPoolBuilder builder = ThriftProxySessionPool.builder().name(name).properties(properties);
+
+        if (maxIdlePerUser != null) {
+            builder.maxIdlePerUser(maxIdlePerUser);
+        }
+
+        if (maxPoolSize != null) {
+            builder.maxPoolSize(maxPoolSize);
+        }
+
+        if (idleTimeout != null) {
+            builder.idleTimeout(idleTimeout);
+        }
+
+        if (maxLifetime != null) {
+            builder.maxLifetime(maxLifetime);
+        }
+
+        if (connectionTimeout != null) {
+            builder.connectionTimeout(connectionTimeout);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Closes the idle sessions and stops the pools; sessions still in use are closed when their connections are closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+
+        if (proxyPool != null) {
+            proxyPool.close();
+            proxyPool = null;
+        }
+    }
+}
@@ -17,36 +17,40 @@
 package veil.hdp.hive.jdbc;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.utils.BatchUtils;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.Properties;
 
 public class HivePreparedStatement extends AbstractPreparedStatement {
 
+    private static final Logger log = LogManager.getLogger(HivePreparedStatement.class);
 
-    private static final char PLACEHOLDER = '?';
     private static final char SINGLE_QUOTE = '\'';
-    private static final char DOUBLE_QUOTE = '"';
     private static final char BACKSLASH = '\\';
     private static final String NULL_STRING = "NULL";
 
-    private static final char[] ESCAPE_CHARS = {SINGLE_QUOTE, BACKSLASH, DOUBLE_QUOTE};
+    private final StatementTemplate template;
 
-    static {
-        Arrays.sort(ESCAPE_CHARS);
-    }
+    private final String[] parameterValues;
 
-    private final String sql;
+    private final List<String[]> batch;
 
-    private final Map<Integer, String> parameterValues;
+    private final StringBuilder sqlBuilder;
 
+    private boolean poolable = true;
 
-    private HivePreparedStatement(HiveConnection connection, int resultSetType, int resultSetConcurrency, int resultSetHoldability, String sql) {
+    private HivePreparedStatement(HiveConnection connection, int resultSetType, int resultSetConcurrency, int resultSetHoldability, StatementTemplate template) {
         super(connection, resultSetType, resultSetConcurrency, resultSetHoldability);
-        this.sql = sql;
-        parameterValues = new HashMap<>();
+        this.template = template;
+        parameterValues = new String[template.getParameterCount()];
+        batch = new ArrayList<>();
+        sqlBuilder = new StringBuilder(template.getSql().length());
     }
 
     public static PreparedStatementBuilder builder() {
@@ -55,78 +59,125 @@ public class HivePreparedStatement extends AbstractPreparedStatement {
 
     @Override
     public void clearParameters() throws SQLException {
-        parameterValues.clear();
+        Arrays.fill(parameterValues, null);
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
-        return super.executeQuery(updateSql(sql));
+        return super.executeQuery(updateSql(parameterValues));
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        return super.executeUpdate(updateSql(sql));
+        return super.executeUpdate(updateSql(parameterValues));
     }
 
     @Override
     public boolean execute() throws SQLException {
-        return super.execute(updateSql(sql));
+        return super.execute(updateSql(parameterValues));
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        batch.add(parameterValues.clone());
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        throw new HiveSQLException("Method 'addBatch(String)' cannot be called on a PreparedStatement");
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        batch.clear();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+
+        List<String> statements = new ArrayList<>(batch.size());
+
+        for (String[] values : batch) {
+            statements.add(updateSql(values));
+        }
+
+        batch.clear();
+
+        int[] updateCounts = new int[statements.size()];
+
+        if (statements.isEmpty()) {
+            return updateCounts;
+        }
+
+        if (BatchUtils.isInsertValues(template.getSql())) {
+            executeInsertBatch(statements, updateCounts);
+        } else {
+            for (int i = 0; i < statements.size(); i++) {
+                try {
+                    updateCounts[i] = super.executeUpdate(statements.get(i));
+                } catch (SQLException e) {
+                    throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, i), e);
+                }
+            }
+        }
+
+        return updateCounts;
     }
 
     @Override
     public void setByte(int parameterIndex, byte x) throws SQLException {
-        parameterValues.put(parameterIndex, Byte.toString(x));
+        setParameter(parameterIndex, Byte.toString(x));
     }
 
     @Override
     public void setShort(int parameterIndex, short x) throws SQLException {
-        parameterValues.put(parameterIndex, Short.toString(x));
+        setParameter(parameterIndex, Short.toString(x));
     }
 
     @Override
     public void setInt(int parameterIndex, int x) throws SQLException {
-        parameterValues.put(parameterIndex, Integer.toString(x));
+        setParameter(parameterIndex, Integer.toString(x));
     }
 
     @Override
     public void setLong(int parameterIndex, long x) throws SQLException {
-        parameterValues.put(parameterIndex, Long.toString(x));
+        setParameter(parameterIndex, Long.toString(x));
     }
 
     @Override
     public void setFloat(int parameterIndex, float x) throws SQLException {
-        parameterValues.put(parameterIndex, Float.toString(x));
+        setParameter(parameterIndex, Float.toString(x));
     }
 
     @Override
     public void setDouble(int parameterIndex, double x) throws SQLException {
-        parameterValues.put(parameterIndex, Double.toString(x));
+        setParameter(parameterIndex, Double.toString(x));
     }
 
     @Override
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
-        parameterValues.put(parameterIndex, Boolean.toString(x));
+        setParameter(parameterIndex, Boolean.toString(x));
     }
 
     @Override
     public void setString(int parameterIndex, String x) throws SQLException {
         String newValue = StringUtils.replace(x, Character.toString(SINGLE_QUOTE), String.valueOf(BACKSLASH) + SINGLE_QUOTE);
-        parameterValues.put(parameterIndex, StringUtils.wrap(newValue, SINGLE_QUOTE));
+        setParameter(parameterIndex, StringUtils.wrap(newValue, SINGLE_QUOTE));
     }
 
     @Override
     public void setDate(int parameterIndex, Date x) throws SQLException {
-        parameterValues.put(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
+        setParameter(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
     }
 
     @Override
     public void setTime(int parameterIndex, Time x) throws SQLException {
-        parameterValues.put(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
+        setParameter(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
     }
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
-        parameterValues.put(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
+        setParameter(parameterIndex, StringUtils.wrap(x.toString(), SINGLE_QUOTE));
     }
 
     @Override
@@ -136,7 +187,7 @@ public class HivePreparedStatement extends AbstractPreparedStatement {
 
     @Override
     public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
-        parameterValues.put(parameterIndex, NULL_STRING);
+        setParameter(parameterIndex, NULL_STRING);
     }
 
 
@@ -184,39 +235,111 @@ public class HivePreparedStatement extends AbstractPreparedStatement {
 
     */
 
-    private String updateSql(String originalSql) {
+    /*
+        rows sharing the same "INSERT INTO ... VALUES" prefix are appended to a single statement until either the row or
+        byte limit is reached.  a row whose prefix differs (eg. a bound parameter outside the values list) starts a new chunk.
+     */
+    private void executeInsertBatch(List<String> statements, int[] updateCounts) throws SQLException {
 
-        if (!originalSql.contains(String.valueOf(PLACEHOLDER))) {
-            return originalSql;
-        }
+        Properties properties = getConnection().getThriftSession().getProperties();
+
+        int maxRows = Math.max(1, HiveDriverProperty.BATCH_MAX_ROWS.getInt(properties));
+        int maxBytes = HiveDriverProperty.BATCH_MAX_BYTES.getInt(properties);
+
+        StringBuilder chunk = new StringBuilder();
+        String chunkPrefix = null;
+        int chunkStart = 0;
+        int chunkBytes = 0;
+
+        for (int i = 0; i < statements.size(); i++) {
+
+            String statement = statements.get(i);
+            int valuesStart = BatchUtils.findValuesList(statement);
+
+            if (valuesStart == -1) {
+                throw new BatchUpdateException("Unable to locate the VALUES list in batched statement [" + statement + ']', Arrays.copyOf(updateCounts, chunkStart));
+            }
+
+            String prefix = statement.substring(0, valuesStart);
+            String values = BatchUtils.getValuesList(statement, valuesStart);
+            int valuesBytes = BatchUtils.utf8Length(values) + 1;
 
-        StringBuilder builder = new StringBuilder(originalSql.length());
+            boolean full = i - chunkStart >= maxRows || (maxBytes > 0 && chunkBytes + valuesBytes > maxBytes);
 
-        int escapeCount = 0;
-        int parameterCount = 1;
+            if (chunkPrefix != null && (full || !chunkPrefix.equals(prefix))) {
+                executeChunk(chunk.toString(), chunkStart, i, updateCounts);
 
-        for (int i = 0; i < originalSql.length(); i++) {
-            char currentChar = sql.charAt(i);
+                chunk.setLength(0);
+                chunkPrefix = null;
+                chunkStart = i;
+            }
 
-            if (Arrays.binarySearch(ESCAPE_CHARS, currentChar) >= 0) {
-                builder.append(currentChar);
-                escapeCount++;
-            } else if (currentChar == PLACEHOLDER && escapeCount % 2 == 0 && parameterValues.containsKey(parameterCount)) {
-                builder.append(parameterValues.get(parameterCount));
-                parameterCount++;
+            if (chunkPrefix == null) {
+                chunkPrefix = prefix;
+                chunk.append(prefix);
+                chunkBytes = BatchUtils.utf8Length(prefix);
             } else {
-                builder.append(currentChar);
+                chunk.append(',');
             }
+
+            chunk.append(values);
+            chunkBytes += valuesBytes;
+        }
+
+        executeChunk(chunk.toString(), chunkStart, statements.size(), updateCounts);
+    }
+
+    private void executeChunk(String chunkSql, int fromRow, int toRow, int[] updateCounts) throws SQLException {
+
+        int rows = toRow - fromRow;
+
+        log.debug("executing batch of {} rows", rows);
+
+        int count;
+
+        try {
+            count = super.executeUpdate(chunkSql);
+        } catch (SQLException e) {
+            throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, fromRow), e);
         }
 
-        return builder.toString();
+        // HS2 rarely reports modified rows; only attribute a count per row when the total is unambiguous
+        Arrays.fill(updateCounts, fromRow, toRow, count == rows ? 1 : SUCCESS_NO_INFO);
+    }
+
+    private void setParameter(int parameterIndex, String value) throws SQLException {
+        if (parameterIndex < 1 || parameterIndex > parameterValues.length) {
+            throw new HiveSQLException("Parameter index [" + parameterIndex + "] is out of range; statement has [" + parameterValues.length + "] parameters");
+        }
 
+        parameterValues[parameterIndex - 1] = value;
+    }
+
+    private String updateSql(String[] values) {
+        return template.render(values, sqlBuilder);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return poolable;
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        this.poolable = poolable;
+
+        // a statement the application does not expect to prepare again should not hold a place in the cache
+        if (!poolable) {
+            getConnection().evictStatementTemplate(template);
+        }
     }
 
     public static class PreparedStatementBuilder extends HiveStatementBuilder {
 
         private String sql;
 
+        private StatementTemplate template;
+
         private PreparedStatementBuilder() {
         }
 
@@ -225,6 +348,11 @@ public class HivePreparedStatement extends AbstractPreparedStatement {
             return this;
         }
 
+        PreparedStatementBuilder template(StatementTemplate template) {
+            this.template = template;
+            return this;
+        }
+
         @Override
         PreparedStatementBuilder connection(HiveConnection connection) {
             super.connection = connection;
@@ -250,7 +378,11 @@ public class HivePreparedStatement extends AbstractPreparedStatement {
         }
 
         public HivePreparedStatement build() {
-            return new HivePreparedStatement(connection, resultSetType, resultSetConcurrency, resultSetHoldability, StringUtils.trim(sql));
+            if (template == null) {
+                template = StatementTemplate.builder().sql(StringUtils.trim(sql)).build();
+            }
+
+            return new HivePreparedStatement(connection, resultSetType, resultSetConcurrency, resultSetHoldability, template);
         }
     }
 }
@@ -391,12 +391,16 @@ public class HiveResultSet extends AbstractResultSet {
 
     @Override
     public boolean next() throws SQLException {
-        if (!iterator.hasNext() || (maxRows > 0 && rowCount.get() >= maxRows)) {
-            currentRow.set(null);
-            return false;
-        }
+        try {
+            if (!iterator.hasNext() || (maxRows > 0 && rowCount.get() >= maxRows)) {
+                currentRow.set(null);
+                return false;
+            }
 
-        currentRow.set(iterator.next());
+            currentRow.set(iterator.next());
+        } catch (HiveTimeoutException e) {
+            throw new SQLTimeoutException(e.getMessage(), e);
+        }
 
         rowCount.incrementAndGet();
 
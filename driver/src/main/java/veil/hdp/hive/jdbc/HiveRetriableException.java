@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc;
+
+/**
+ * Thrown when the connection to HS2 was lost during a call that is not safe to repeat automatically.  The session has already been reestablished, or
+ * will be on the next call, so the caller may retry once it has decided that doing so is safe.
+ */
+public class HiveRetriableException extends HiveException {
+
+    private static final long serialVersionUID = 5273380714406391784L;
+
+    public HiveRetriableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
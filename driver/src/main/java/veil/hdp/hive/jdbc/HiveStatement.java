@@ -19,21 +19,38 @@ package veil.hdp.hive.jdbc;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.bindings.TOperationHandle;
 import veil.hdp.hive.jdbc.thrift.ThriftOperation;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
 import veil.hdp.hive.jdbc.utils.Constants;
 import veil.hdp.hive.jdbc.utils.DriverUtils;
 import veil.hdp.hive.jdbc.utils.QueryUtils;
 import veil.hdp.hive.jdbc.utils.ThriftUtils;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
 
+import java.sql.BatchUpdateException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.SQLWarning;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HiveStatement extends AbstractStatement {
 
     private static final Logger log = LogManager.getLogger(HiveStatement.class);
 
+    // bounds, in milliseconds, of the pause between batch polls in which no operation finished
+    private static final long MIN_BATCH_POLL_INTERVAL = 10;
+    private static final long MAX_BATCH_POLL_INTERVAL = 1000;
+
     // constructor
     private final HiveConnection connection;
     private final int resultSetType;
@@ -49,7 +66,9 @@ public class HiveStatement extends AbstractStatement {
     private int fetchDirection;
     private SQLWarning sqlWarning;
     private int updateCount = -1;
+    private boolean poolable;
     private ResultSet resultSet;
+    private final List<String> batch = new ArrayList<>();
 
 
     HiveStatement(HiveConnection connection, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
@@ -64,6 +83,8 @@ public class HiveStatement extends AbstractStatement {
         this.resultSetHoldability = resultSetHoldability;
 
         closed.set(false);
+
+        connection.register(this);
     }
 
     public static HiveStatementBuilder builder() {
@@ -73,11 +94,22 @@ public class HiveStatement extends AbstractStatement {
     @Override
     public boolean execute(String sql) throws SQLException {
 
-        if (thriftOperation != null) {
-            close();
+        closeOperation();
+
+        // must match the fetch size the result set will use, so a prefetched first page is interpreted correctly
+        int effectiveFetchSize = maxRows > 0 && maxRows < fetchSize ? maxRows : fetchSize;
+
+        QueryUtils.recordOriginalSetting(connection, sql);
+
+        try {
+            thriftOperation = ThriftUtils.executeSql(connection.getThriftSession(), sql, queryTimeout, effectiveFetchSize);
+        } catch (HiveTimeoutException e) {
+            throw new SQLTimeoutException(e.getMessage(), e);
+        } catch (HiveRetriableException e) {
+            throw new SQLTransientConnectionException(e.getMessage(), e);
         }
 
-        thriftOperation = ThriftUtils.executeSql(connection.getThriftSession(), sql, queryTimeout);
+        QueryUtils.recordSessionChange(connection.getThriftSession(), sql);
 
         if (thriftOperation.hasResultSet()) {
 
@@ -102,6 +134,203 @@ public class HiveStatement extends AbstractStatement {
 
     }
 
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        batch.add(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        batch.clear();
+    }
+
+    /*
+        every statement is submitted asynchronously on the session, keeping at most "batchConcurrency" operations in flight.
+        a single loop polls the in-flight handles in submission order and refills the window as they finish, backing off while
+        nothing finishes.  after the first failure no new statements are submitted but those already running are allowed to finish.
+        whatever is still in flight when the loop exits abnormally is closed on the server.  statements that change the session (USE,
+        SET, ADD, CREATE TEMPORARY) run alone, so their neighbours see the session as they would serially, and are recorded like
+        statements run through execute so a pooled session can be reset.  the query timeout bounds the whole batch: once it passes,
+        whatever is in flight is canceled and nothing more is submitted.
+     */
+    @Override
+    public int[] executeBatch() throws SQLException {
+
+        if (isClosed()) {
+            throw new HiveSQLException("Cannot 'executeBatch'.  Statement is closed.");
+        }
+
+        closeOperation();
+
+        List<String> statements = new ArrayList<>(batch);
+
+        batch.clear();
+
+        int[] updateCounts = new int[statements.size()];
+        Arrays.fill(updateCounts, EXECUTE_FAILED);
+
+        ThriftSession session = connection.getThriftSession();
+
+        int window = Math.max(1, HiveDriverProperty.BATCH_CONCURRENCY.getInt(session.getProperties()));
+
+        Map<Integer, TOperationHandle> inFlight = new LinkedHashMap<>(window);
+
+        SQLException failure = null;
+        int next = 0;
+        // index of an in-flight statement that changes the session, or -1
+        int barrier = -1;
+        long pollInterval = MIN_BATCH_POLL_INTERVAL;
+
+        // older versions of HS2 ignore the query timeout in the request, and it only bounds each statement; enforce it for the batch here
+        long deadline = queryTimeout > 0 ? WatchdogUtils.deadline(queryTimeout, TimeUnit.SECONDS) : ThriftOperation.NO_DEADLINE;
+        boolean timedOut = false;
+
+        try {
+            while (inFlight.size() > 0 || (failure == null && next < statements.size())) {
+
+                if (deadline != ThriftOperation.NO_DEADLINE && WatchdogUtils.isPast(deadline)) {
+                    for (TOperationHandle handle : inFlight.values()) {
+                        cancelBatchOperation(session, handle);
+                    }
+
+                    timedOut = true;
+
+                    break;
+                }
+
+                while (failure == null && next < statements.size() && inFlight.size() < window && barrier == -1) {
+                    String sql = statements.get(next);
+
+                    boolean changesSession = QueryUtils.changesSession(sql);
+
+                    if (changesSession && !inFlight.isEmpty()) {
+                        break;
+                    }
+
+                    try {
+                        QueryUtils.recordOriginalSetting(connection, sql);
+
+                        inFlight.put(next, ThriftUtils.submitStatement(session, sql, queryTimeout));
+
+                        if (changesSession) {
+                            barrier = next;
+                        }
+                    } catch (SQLException | RuntimeException e) {
+                        failure = chainFailure(failure, sql, e);
+                    }
+
+                    next++;
+                }
+
+                boolean progress = false;
+
+                for (Iterator<Map.Entry<Integer, TOperationHandle>> iterator = inFlight.entrySet().iterator(); iterator.hasNext(); ) {
+                    Map.Entry<Integer, TOperationHandle> entry = iterator.next();
+
+                    int index = entry.getKey();
+                    TOperationHandle handle = entry.getValue();
+
+                    try {
+                        if (!ThriftUtils.isStatementComplete(session, handle)) {
+                            continue;
+                        }
+
+                        if (handle.isSetHasResultSet() && handle.isHasResultSet()) {
+                            failure = chainFailure(failure, statements.get(index), new HiveSQLException("The query generated a result set when an updated was expected"));
+                        } else {
+                            updateCounts[index] = handle.isSetModifiedRowCount() && handle.getModifiedRowCount() >= 0 ? (int) handle.getModifiedRowCount() : SUCCESS_NO_INFO;
+                        }
+
+                        QueryUtils.recordSessionChange(session, statements.get(index));
+                    } catch (RuntimeException e) {
+                        failure = chainFailure(failure, statements.get(index), e);
+                    }
+
+                    iterator.remove();
+
+                    if (index == barrier) {
+                        barrier = -1;
+                    }
+
+                    closeBatchOperation(session, handle);
+
+                    progress = true;
+                }
+
+                if (progress) {
+                    pollInterval = MIN_BATCH_POLL_INTERVAL;
+                } else if (!inFlight.isEmpty()) {
+                    long sleep = pollInterval;
+
+                    if (deadline != ThriftOperation.NO_DEADLINE) {
+                        sleep = Math.max(0, Math.min(sleep, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                    }
+
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new HiveSQLException("interrupted while waiting for batched statements", e);
+                    }
+
+                    pollInterval = Math.min(pollInterval * 2, MAX_BATCH_POLL_INTERVAL);
+                }
+            }
+        } finally {
+            // closing a running operation also stops it on the server
+            for (TOperationHandle handle : inFlight.values()) {
+                closeBatchOperation(session, handle);
+            }
+        }
+
+        if (timedOut) {
+            SQLTimeoutException timeout = new SQLTimeoutException("batch did not complete within the query timeout of [" + queryTimeout + "] seconds");
+
+            if (failure != null) {
+                timeout.setNextException(failure);
+            }
+
+            throw timeout;
+        }
+
+        if (failure != null) {
+            throw new BatchUpdateException(failure.getMessage(), failure.getSQLState(), failure.getErrorCode(), updateCounts, failure);
+        }
+
+        return updateCounts;
+    }
+
+    private static void closeBatchOperation(ThriftSession session, TOperationHandle handle) {
+        try {
+            ThriftUtils.closeOperation(session, handle);
+        } catch (RuntimeException e) {
+            log.warn("unable to close batched operation: {}", e.getMessage(), e);
+        }
+    }
+
+    private static void cancelBatchOperation(ThriftSession session, TOperationHandle handle) {
+        try {
+            ThriftUtils.cancelOperation(session, handle);
+        } catch (RuntimeException e) {
+            log.warn("unable to cancel batched operation: {}", e.getMessage(), e);
+        }
+    }
+
+    private static SQLException chainFailure(SQLException failure, String sql, Exception e) {
+
+        SQLException exception = e instanceof SQLException ? (SQLException) e : new HiveSQLException(e.getMessage(), e);
+
+        log.warn("batched statement failed [{}]", sql, e);
+
+        if (failure == null) {
+            return exception;
+        }
+
+        failure.setNextException(exception);
+
+        return failure;
+    }
+
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
         boolean result = execute(sql);
@@ -229,13 +458,19 @@ public class HiveStatement extends AbstractStatement {
 
             log.trace("attempting to close {}", this.getClass().getName());
 
-            if (thriftOperation != null && !thriftOperation.isClosed()) {
-                DriverUtils.close(thriftOperation);
-            }
+            connection.unregister(this);
 
-            if (resultSet != null && !resultSet.isClosed()) {
-                DriverUtils.close(resultSet);
-            }
+            closeOperation();
+        }
+    }
+
+    private void closeOperation() throws SQLException {
+        if (thriftOperation != null && !thriftOperation.isClosed()) {
+            DriverUtils.close(thriftOperation);
+        }
+
+        if (resultSet != null && !resultSet.isClosed()) {
+            DriverUtils.close(resultSet);
         }
     }
 
@@ -268,14 +503,12 @@ public class HiveStatement extends AbstractStatement {
 
     @Override
     public boolean isPoolable() throws SQLException {
-        return Boolean.FALSE;
+        return poolable;
     }
 
     @Override
     public void setPoolable(boolean poolable) throws SQLException {
-        // no-op; don't support pooling statements
-        // todo: should consider pooling statements
-        log.warn("no-op for method setPoolable()");
+        this.poolable = poolable;
     }
 
     @Override
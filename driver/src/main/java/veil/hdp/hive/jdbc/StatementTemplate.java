@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parameterized sql statement parsed once into literal segments separated by placeholder slots.  Templates are immutable and can be shared by every
+ * {@link HivePreparedStatement} created from the same sql on a connection.
+ */
+public class StatementTemplate {
+
+    private static final char PLACEHOLDER = '?';
+    private static final char SINGLE_QUOTE = '\'';
+    private static final char DOUBLE_QUOTE = '"';
+    private static final char BACKTICK = '`';
+    private static final char BACKSLASH = '\\';
+
+    private final String sql;
+    private final String[] segments;
+    private final int literalLength;
+
+    private StatementTemplate(String sql, String[] segments, int literalLength) {
+        this.sql = sql;
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    public static StatementTemplateBuilder builder() {
+        return new StatementTemplateBuilder();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return segments.length - 1;
+    }
+
+    /**
+     * Renders the statement into {@code builder}, which is cleared first.  A slot without a value is rendered as the original placeholder.
+     *
+     * @param parameterValues the already escaped values, indexed from zero
+     * @param builder         reused between calls to avoid growing a new buffer for every execution
+     * @return the rendered sql
+     */
+    public String render(String[] parameterValues, StringBuilder builder) {
+
+        if (segments.length == 1) {
+            return sql;
+        }
+
+        builder.setLength(0);
+        builder.ensureCapacity(literalLength + segments.length * 16);
+
+        builder.append(segments[0]);
+
+        for (int i = 1; i < segments.length; i++) {
+            String value = parameterValues[i - 1];
+
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append(PLACEHOLDER);
+            }
+
+            builder.append(segments[i]);
+        }
+
+        return builder.toString();
+    }
+
+    public static class StatementTemplateBuilder implements Builder<StatementTemplate> {
+
+        private String sql;
+
+        private StatementTemplateBuilder() {
+        }
+
+        public StatementTemplateBuilder sql(String sql) {
+            this.sql = sql;
+            return this;
+        }
+
+        /*
+            placeholders inside quoted strings or identifiers are literals.  within a quoted string a backslash escapes the next
+            character, which matches how setString() escapes single quotes.
+         */
+        public StatementTemplate build() {
+
+            List<String> segments = new ArrayList<>();
+
+            int length = sql.length();
+            int segmentStart = 0;
+
+            char quote = 0;
+
+            for (int i = 0; i < length; i++) {
+                char c = sql.charAt(i);
+
+                if (quote != 0) {
+                    if (c == BACKSLASH && quote != BACKTICK) {
+                        i++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE || c == BACKTICK) {
+                    quote = c;
+                } else if (c == PLACEHOLDER) {
+                    segments.add(sql.substring(segmentStart, i));
+                    segmentStart = i + 1;
+                }
+            }
+
+            segments.add(sql.substring(segmentStart));
+
+            return new StatementTemplate(sql, segments.toArray(new String[0]), length - (segments.size() - 1));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.utils.HiveExceptionUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker per host.  After {@code circuitBreakerFailures} consecutive connects fail, or take longer than {@code circuitBreakerSlowConnect},
+ * the circuit opens and host selection avoids the host.  Only failures to reach the host count; rejected credentials say nothing about its health.
+ * While the circuit is open a background probe opens a plain socket to the host every {@code circuitBreakerProbeInterval}, without credentials.
+ * A probe that connects half closes the circuit: the host is selected again but the next failure reopens it.  The first connect that succeeds in
+ * time closes it completely.
+ */
+public final class HostHealthTracker {
+
+    private static final Logger log = LogManager.getLogger(HostHealthTracker.class);
+
+    private static final ScheduledThreadPoolExecutor PROBES = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-health-probe-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private HostHealthTracker() {
+    }
+
+    public static void connectSucceeded(Properties properties, HostStats host, long elapsedMillis) {
+        host.recordConnectTime(elapsedMillis);
+
+        int slowConnect = HiveDriverProperty.CIRCUIT_BREAKER_SLOW_CONNECT.getInt(properties);
+
+        if (slowConnect > 0 && elapsedMillis > slowConnect) {
+            log.debug("connect to [{}:{}] took [{}] ms", host.getHost(), host.getPort(), elapsedMillis);
+
+            recordFailure(properties, host);
+            return;
+        }
+
+        host.consecutiveFailures.set(0);
+
+        if (host.circuitOpen.compareAndSet(true, false)) {
+            log.info("host [{}:{}] is healthy again; circuit closed", host.getHost(), host.getPort());
+        }
+    }
+
+    public static void connectFailed(Properties properties, HostStats host, Throwable error) {
+        log.debug("connect to [{}:{}] failed: {}", host.getHost(), host.getPort(), error.getMessage());
+
+        if (HiveExceptionUtils.isConnectFailure(error)) {
+            recordFailure(properties, host);
+        }
+    }
+
+    private static void recordFailure(Properties properties, HostStats host) {
+        int threshold = HiveDriverProperty.CIRCUIT_BREAKER_FAILURES.getInt(properties);
+
+        if (threshold <= 0) {
+            return;
+        }
+
+        int failures = host.consecutiveFailures.incrementAndGet();
+
+        if (failures >= threshold && host.circuitOpen.compareAndSet(false, true)) {
+            log.warn("host [{}:{}] failed [{}] consecutive connects; circuit opened", host.getHost(), host.getPort(), failures);
+
+            int interval = HiveDriverProperty.CIRCUIT_BREAKER_PROBE_INTERVAL.getInt(properties);
+            int timeout = HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties);
+
+            schedule(host, threshold, interval, timeout > 0 ? Math.min(timeout, interval) : interval);
+        }
+    }
+
+    private static void schedule(HostStats host, int threshold, int interval, int timeout) {
+        PROBES.schedule(() -> probe(host, threshold, interval, timeout), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void probe(HostStats host, int threshold, int interval, int timeout) {
+        if (!host.isCircuitOpen()) {
+            return;
+        }
+
+        log.debug("probing host [{}:{}]", host.getHost(), host.getPort());
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host.getHost(), host.getPort()), timeout);
+
+            // one more failure is enough to open the circuit again
+            host.consecutiveFailures.set(threshold - 1);
+
+            if (host.circuitOpen.compareAndSet(true, false)) {
+                log.info("host [{}:{}] is accepting connections again; circuit half closed", host.getHost(), host.getPort());
+            }
+
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.debug("probe of host [{}:{}] failed: {}", host.getHost(), host.getPort(), e.getMessage());
+        }
+
+        schedule(host, threshold, interval, timeout);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import java.util.List;
+
+/**
+ * Chooses the HiveServer2 instance a new connection is opened against, either from the servers registered in ZooKeeper or from the hosts of a
+ * multi-host URL ({@code jdbc:hive2://h1:10000,h2:10000/db}).  A single instance is shared by every connection in the JVM, so implementations
+ * must be thread safe; custom implementations are named by class in {@code hostSelectionPolicy} and need a public no-arg constructor.
+ */
+public interface HostSelectionPolicy {
+
+    /**
+     * @param hosts the candidates, never empty; their statistics are live and may change while the policy looks at them
+     * @return one of {@code hosts}
+     */
+    HostStats select(List<HostStats> hosts);
+}
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What this JVM has seen of one HiveServer2 instance: the Thrift calls currently in flight, a moving average of OpenSession latency and the outcome of
+ * recent connects.  Shared by every connection to the instance; calls are recorded by {@link HostStatsInterceptor} and connects by
+ * {@link HostHealthTracker}.
+ */
+public final class HostStats {
+
+    // weight of the newest sample; about the last ten sessions dominate the average
+    private static final double ALPHA = 0.2;
+    private static final int CONNECT_SAMPLES = 64;
+
+    private static final ConcurrentMap<String, HostStats> STATS = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int port;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // double bits of the average in nanoseconds; zero until the first call completes
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+
+    // handshake times in milliseconds of the most recent successful connects, oldest overwritten first
+    private final long[] connectTimes = new long[CONNECT_SAMPLES];
+    private int connectCount;
+
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final AtomicBoolean circuitOpen = new AtomicBoolean();
+
+    private HostStats(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static HostStats forHost(String host, int port) {
+        return STATS.computeIfAbsent(host + ':' + port, k -> new HostStats(host, port));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the number of calls to this host currently in flight
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the exponentially weighted moving average of OpenSession latency in nanoseconds, or zero if no session has been opened yet
+     */
+    public double getLatencyEwma() {
+        return Double.longBitsToDouble(latency.get());
+    }
+
+    /**
+     * @return true if recent connects to this host failed or were too slow; new connections avoid the host until a background probe succeeds
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @param minSamples the number of connects needed before the percentile is trusted
+     * @return the handshake time in milliseconds at the given percentile of recent connects, or -1 if there are fewer than {@code minSamples}
+     */
+    public synchronized long getConnectTimePercentile(double percentile, int minSamples) {
+        int count = Math.min(connectCount, CONNECT_SAMPLES);
+
+        if (count < Math.max(minSamples, 1)) {
+            return -1;
+        }
+
+        long[] sorted = Arrays.copyOf(connectTimes, count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+
+        return sorted[Math.min(Math.max(index, 0), count - 1)];
+    }
+
+    synchronized void recordConnectTime(long millis) {
+        connectTimes[connectCount++ % CONNECT_SAMPLES] = millis;
+
+        // keep the index from overflowing while remembering that the buffer is full
+        if (connectCount == 2 * CONNECT_SAMPLES) {
+            connectCount = CONNECT_SAMPLES;
+        }
+    }
+
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    void end() {
+        outstanding.decrementAndGet();
+    }
+
+    void recordLatency(long elapsedNanos) {
+        while (true) {
+            long current = latency.get();
+            double average = Double.longBitsToDouble(current);
+            double updated = average == 0 ? elapsedNanos : average + ALPHA * (elapsedNanos - average);
+
+            if (latency.compareAndSet(current, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ':' + port + " [outstanding=" + getOutstanding() + ", latencyEwma=" + (long) getLatencyEwma() + "ns, circuitOpen=" + isCircuitOpen() + ']';
+    }
+}
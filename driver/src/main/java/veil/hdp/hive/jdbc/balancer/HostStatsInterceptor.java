@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import veil.hdp.hive.jdbc.thrift.RpcInterceptor;
+
+/**
+ * Counts the calls in flight to a host and records how long opening a session takes for the {@link HostSelectionPolicy}.
+ */
+public class HostStatsInterceptor implements RpcInterceptor {
+
+    private static final String OPEN_SESSION = "OpenSession";
+
+    private final HostStats stats;
+
+    public HostStatsInterceptor(HostStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void before(String method) {
+        stats.begin();
+    }
+
+    @Override
+    public void after(String method, long elapsedNanos, Throwable error) {
+        stats.end();
+
+        // status polls and fetches last as long as the query does; opening a session says how quickly the host itself answers
+        if (error == null && OPEN_SESSION.equals(method)) {
+            stats.recordLatency(elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the host with the lowest expected wait: the moving average of its OpenSession latency scaled by the calls already in flight.  A host that has
+ * not opened a session yet costs nothing, so new hosts are tried before the averages take over.
+ */
+public class LatencyEwmaPolicy implements HostSelectionPolicy {
+
+    static double cost(HostStats host) {
+        return host.getLatencyEwma() * (host.getOutstanding() + 1);
+    }
+
+    @Override
+    public HostStats select(List<HostStats> hosts) {
+        HostStats best = null;
+        double bestCost = Double.MAX_VALUE;
+        int ties = 0;
+
+        for (HostStats host : hosts) {
+            double cost = cost(host);
+
+            if (cost < bestCost) {
+                best = host;
+                bestCost = cost;
+                ties = 1;
+            } else if (cost == bestCost && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                best = host;
+            }
+        }
+
+        return best;
+    }
+}
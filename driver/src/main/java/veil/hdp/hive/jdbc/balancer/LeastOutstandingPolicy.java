@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the host with the fewest calls in flight from this JVM.  Ties are broken at random so that idle hosts share new connections evenly.
+ */
+public class LeastOutstandingPolicy implements HostSelectionPolicy {
+
+    @Override
+    public HostStats select(List<HostStats> hosts) {
+        HostStats best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        int ties = 0;
+
+        for (HostStats host : hosts) {
+            int outstanding = host.getOutstanding();
+
+            if (outstanding < bestOutstanding) {
+                best = host;
+                bestOutstanding = outstanding;
+                ties = 1;
+            } else if (outstanding == bestOutstanding && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                best = host;
+            }
+        }
+
+        return best;
+    }
+}
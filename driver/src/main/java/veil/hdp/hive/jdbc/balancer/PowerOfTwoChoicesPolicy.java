@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.balancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two distinct hosts at random and keeps the one with the lower {@link LatencyEwmaPolicy} cost.  Almost as good as always picking the
+ * best host, but clients acting on the same stale numbers don't all pile onto it at once.
+ */
+public class PowerOfTwoChoicesPolicy implements HostSelectionPolicy {
+
+    @Override
+    public HostStats select(List<HostStats> hosts) {
+        int size = hosts.size();
+
+        if (size == 1) {
+            return hosts.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int first = random.nextInt(size);
+        // shift the second pick past the first so the two are always distinct
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        HostStats a = hosts.get(first);
+        HostStats b = hosts.get(second);
+
+        return LatencyEwmaPolicy.cost(b) < LatencyEwmaPolicy.cost(a) ? b : a;
+    }
+}
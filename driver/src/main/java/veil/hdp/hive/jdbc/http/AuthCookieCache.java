@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.impl.client.BasicCookieStore;
+import veil.hdp.hive.jdbc.AuthenticationMode;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.security.KerberosService;
+import veil.hdp.hive.jdbc.utils.HttpUtils;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authentication cookies shared by every connection that authenticates as the same kerberos identity against the same endpoint.  Only the
+ * first connection performs SPNEGO; the others replay its cookie until the cookie expires or the server rejects it.  Sharing needs
+ * {@code httpStreaming}, whose transport clears a rejected cookie and retries the request; with {@code THttpClient} every connection keeps its own
+ * store.  A store no new connection has asked for in an hour is dropped; connections already holding it keep using it.
+ */
+public final class AuthCookieCache {
+
+    private static final long IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+    private static final long EVICTION_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, SharedStore> STORES = new ConcurrentHashMap<>();
+    private static final AtomicLong NEXT_EVICTION = new AtomicLong();
+
+    private AuthCookieCache() {
+    }
+
+    /**
+     * @return the cookie store shared by the connection's identity and endpoint, or a store of its own when sharing is disabled
+     */
+    public static CookieStore getCookieStore(Properties properties) {
+        AuthenticationMode authenticationMode = AuthenticationMode.valueOf(HiveDriverProperty.AUTHENTICATION_MODE.get(properties));
+
+        // THttpClient cannot resend a request, so a shared cookie the server rejects would fail the call instead of authenticating again
+        if (authenticationMode != AuthenticationMode.KERBEROS || !HiveDriverProperty.HTTP_COOKIE_SHARED.getBoolean(properties)
+                || !HiveDriverProperty.HTTP_STREAMING_ENABLED.getBoolean(properties)) {
+            return new BasicCookieStore();
+        }
+
+        long now = System.currentTimeMillis();
+
+        evictIdle(now);
+
+        String key = KerberosService.getIdentity(properties) + ' ' + HttpUtils.buildUrl(properties);
+
+        SharedStore shared = STORES.computeIfAbsent(key, k -> new SharedStore());
+
+        shared.lastUsed = now;
+        shared.cookieStore.clearExpired(new Date(now));
+
+        return shared.cookieStore;
+    }
+
+    private static void evictIdle(long now) {
+        long next = NEXT_EVICTION.get();
+
+        if (now < next || !NEXT_EVICTION.compareAndSet(next, now + EVICTION_INTERVAL)) {
+            return;
+        }
+
+        STORES.values().removeIf(shared -> now - shared.lastUsed > IDLE_TIMEOUT);
+    }
+
+    private static class SharedStore {
+        private final CookieStore cookieStore = new BasicCookieStore();
+        private volatile long lastUsed;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Counts body bytes before request compression and after response decompression, and times each round trip.  Must run first among the request
+ * interceptors and last among the response interceptors; {@link WireMetricsInterceptor} takes the opposite positions.
+ */
+public class BodyMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String START = BodyMetricsInterceptor.class.getName() + ".start";
+    private static final String ORIGINAL = BodyMetricsInterceptor.class.getName() + ".original";
+
+    private final HttpTransportMetrics metrics = HttpTransportMetrics.getInstance();
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        context.setAttribute(START, System.nanoTime());
+
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+
+            HttpEntity entity = original(enclosingRequest, context);
+
+            if (entity != null) {
+                enclosingRequest.setEntity(new CountingEntity(entity, metrics::addRequestBodyBytes));
+            }
+        }
+    }
+
+    /*
+        a retried request passes through the interceptors again with the entity they wrapped the first time; start over from the entity the
+        caller supplied so it is neither counted nor compressed twice
+     */
+    private static HttpEntity original(HttpEntityEnclosingRequest request, HttpContext context) {
+        OriginalEntity original = (OriginalEntity) context.getAttribute(ORIGINAL);
+
+        if (original != null && original.request == request) {
+            return original.entity;
+        }
+
+        context.setAttribute(ORIGINAL, new OriginalEntity(request, request.getEntity()));
+
+        return request.getEntity();
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object start = context.getAttribute(START);
+
+        if (start != null) {
+            metrics.addRoundTrip(System.nanoTime() - (Long) start);
+        }
+
+        if (response.getEntity() != null) {
+            response.setEntity(new CountingEntity(response.getEntity(), metrics::addResponseBodyBytes));
+        }
+    }
+
+    private static class OriginalEntity {
+
+        private final HttpRequest request;
+        private final HttpEntity entity;
+
+        OriginalEntity(HttpRequest request, HttpEntity entity) {
+            this.request = request;
+            this.entity = entity;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Gzips request bodies of at least the threshold size, such as large batched inserts.  Bodies of unknown length are always compressed.  The server,
+ * or a proxy in front of it, must accept {@code Content-Encoding: gzip} on requests.
+ */
+public class GzipRequestInterceptor implements HttpRequestInterceptor {
+
+    private final long threshold;
+
+    public GzipRequestInterceptor(long threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+
+        HttpEntity entity = enclosingRequest.getEntity();
+
+        if (entity == null || entity.getContentEncoding() != null) {
+            return;
+        }
+
+        long length = entity.getContentLength();
+
+        if (length < 0 || length >= threshold) {
+            enclosingRequest.setEntity(new GzipCompressingEntity(entity));
+        }
+    }
+}
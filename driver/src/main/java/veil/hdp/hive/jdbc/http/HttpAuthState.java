@@ -0,0 +1,64 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.HttpClientContext;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+
+import java.util.Properties;
+
+/**
+ * The authentication state of one JDBC connection.  It travels with each request in the {@link HttpClientContext}, so an HTTP client shared by many
+ * connections still authenticates each request as the connection that made it and replays only the cookies of that connection's identity.
+ */
+public class HttpAuthState {
+
+    public static final String ATTRIBUTE = HttpAuthState.class.getName();
+
+    private final Properties properties;
+    private final CookieStore cookieStore;
+
+    public HttpAuthState(Properties properties) {
+        this.properties = properties;
+        this.cookieStore = HiveDriverProperty.HTTP_COOKIE_REPLAY_ENABLED.getBoolean(properties) ? AuthCookieCache.getCookieStore(properties) : null;
+    }
+
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public CookieStore getCookieStore() {
+        return cookieStore;
+    }
+
+    /**
+     * @return a new context carrying this state; each transport needs its own context, as contexts also hold per-request attributes
+     */
+    public HttpClientContext createContext() {
+        HttpClientContext context = HttpClientContext.create();
+
+        context.setAttribute(ATTRIBUTE, this);
+
+        if (cookieStore != null) {
+            context.setCookieStore(cookieStore);
+        }
+
+        return context;
+    }
+}
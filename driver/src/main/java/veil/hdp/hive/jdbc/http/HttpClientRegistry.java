@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.utils.HttpUtils;
+import veil.hdp.hive.jdbc.utils.SslContextUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP clients shared by every connection in the JVM that talks to the same endpoint with the same TLS, authentication mode and pool settings, so
+ * connections reuse each other's sockets and TLS sessions instead of each building a client and pool of their own.  Clients are reference counted
+ * and closed when the last connection using one is closed.  A single background thread closes pooled sockets that have been idle too long.
+ */
+public final class HttpClientRegistry {
+
+    private static final Logger log = LogManager.getLogger(HttpClientRegistry.class);
+
+    private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    private static final Map<String, SharedClient> CLIENTS = new HashMap<>();
+
+    private static final ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-http-evictor-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(HttpClientRegistry::evictIdleConnections, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private HttpClientRegistry() {
+    }
+
+    /**
+     * @return a lease on the shared client for the connection's endpoint and settings; closing the lease releases the connection's reference
+     */
+    public static synchronized Lease acquire(Properties properties) {
+        String key = key(properties);
+
+        SharedClient sharedClient = CLIENTS.get(key);
+
+        if (sharedClient == null) {
+            PoolingHttpClientConnectionManager cm = HttpUtils.buildPoolingConnectionManager(properties);
+
+            sharedClient = new SharedClient(key, HttpUtils.buildClient(properties, cm, true), cm, HiveDriverProperty.HTTP_POOL_IDLE_TIMEOUT.getInt(properties));
+
+            CLIENTS.put(key, sharedClient);
+
+            log.debug("created shared http client for {}", key);
+        }
+
+        sharedClient.references++;
+
+        return new Lease(sharedClient);
+    }
+
+    private static synchronized void release(SharedClient sharedClient) {
+        if (--sharedClient.references > 0) {
+            return;
+        }
+
+        CLIENTS.remove(sharedClient.key);
+
+        log.debug("closing shared http client for {}", sharedClient.key);
+
+        try {
+            sharedClient.client.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+        }
+
+        sharedClient.connectionManager.shutdown();
+    }
+
+    private static synchronized void evictIdleConnections() {
+        for (SharedClient sharedClient : CLIENTS.values()) {
+            try {
+                sharedClient.connectionManager.closeExpiredConnections();
+
+                if (sharedClient.idleTimeout > 0) {
+                    sharedClient.connectionManager.closeIdleConnections(sharedClient.idleTimeout, TimeUnit.MILLISECONDS);
+                }
+            } catch (RuntimeException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    // everything that shapes the client or its connections; per connection credentials travel with each request instead
+    private static String key(Properties properties) {
+        StringBuilder key = new StringBuilder();
+
+        HiveDriverProperty[] keyProperties = {
+                HiveDriverProperty.HOST_NAME,
+                HiveDriverProperty.PORT_NUMBER,
+                HiveDriverProperty.HTTP_ENDPOINT,
+                HiveDriverProperty.AUTHENTICATION_MODE,
+                HiveDriverProperty.SSL_ENABLED,
+                HiveDriverProperty.SSL_TRUST_STORE_PATH,
+                HiveDriverProperty.SSL_TRUST_STORE_TYPE,
+                HiveDriverProperty.SSL_TWO_WAY_ENABLED,
+                HiveDriverProperty.SSL_KEY_STORE_PATH,
+                HiveDriverProperty.SSL_KEY_STORE_TYPE,
+                HiveDriverProperty.HTTP_POOL_MAX_TOTAL,
+                HiveDriverProperty.HTTP_POOL_MAX_PER_ROUTE,
+                HiveDriverProperty.HTTP_POOL_IDLE_TIMEOUT,
+                HiveDriverProperty.HTTP_COMPRESSION_ENABLED,
+                HiveDriverProperty.HTTP_REQUEST_COMPRESSION_THRESHOLD
+        };
+
+        for (HiveDriverProperty property : keyProperties) {
+            key.append(property.get(properties)).append('|');
+        }
+
+        // the stores themselves, so a client built from a store that has since been replaced is not handed to new connections
+        if (HiveDriverProperty.SSL_ENABLED.getBoolean(properties)) {
+            key.append(SslContextUtils.getStoreIdentity(HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties))).append('|');
+
+            if (HiveDriverProperty.SSL_TWO_WAY_ENABLED.getBoolean(properties)) {
+                key.append(SslContextUtils.getStoreIdentity(HiveDriverProperty.SSL_KEY_STORE_PATH.get(properties), HiveDriverProperty.SSL_KEY_STORE_TYPE.get(properties), HiveDriverProperty.SSL_KEY_STORE_PASSWORD.get(properties))).append('|');
+            }
+        }
+
+        return key.toString();
+    }
+
+    private static class SharedClient {
+
+        private final String key;
+        private final CloseableHttpClient client;
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final long idleTimeout;
+        private int references;
+
+        SharedClient(String key, CloseableHttpClient client, PoolingHttpClientConnectionManager connectionManager, long idleTimeout) {
+            this.key = key;
+            this.client = client;
+            this.connectionManager = connectionManager;
+            this.idleTimeout = idleTimeout;
+        }
+    }
+
+    public static class Lease implements Closeable {
+
+        private final SharedClient sharedClient;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Lease(SharedClient sharedClient) {
+            this.sharedClient = sharedClient;
+        }
+
+        public CloseableHttpClient getClient() {
+            return sharedClient.client;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(sharedClient);
+            }
+        }
+    }
+}
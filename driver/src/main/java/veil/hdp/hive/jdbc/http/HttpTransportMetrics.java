@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class HttpTransportMetrics implements HttpTransportMetricsMXBean {
+
+    private static final Logger log = LogManager.getLogger(HttpTransportMetrics.class);
+
+    private static final HttpTransportMetrics INSTANCE = new HttpTransportMetrics();
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            ObjectName objectName = new ObjectName("veil.hdp.hive.jdbc:type=HttpTransport");
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(INSTANCE, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("unable to register http transport metrics with jmx: " + e.getMessage(), e);
+        }
+    }
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder requestBodyBytes = new LongAdder();
+    private final LongAdder requestWireBytes = new LongAdder();
+    private final LongAdder responseWireBytes = new LongAdder();
+    private final LongAdder responseBodyBytes = new LongAdder();
+    private final LongAdder roundTripNanos = new LongAdder();
+
+    private HttpTransportMetrics() {
+    }
+
+    public static HttpTransportMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    void addRequestBodyBytes(long count) {
+        requestBodyBytes.add(count);
+    }
+
+    void addRequestWireBytes(long count) {
+        requestWireBytes.add(count);
+    }
+
+    void addResponseWireBytes(long count) {
+        responseWireBytes.add(count);
+    }
+
+    void addResponseBodyBytes(long count) {
+        responseBodyBytes.add(count);
+    }
+
+    void addRoundTrip(long nanos) {
+        requests.increment();
+        roundTripNanos.add(nanos);
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getRequestBodyBytes() {
+        return requestBodyBytes.sum();
+    }
+
+    @Override
+    public long getRequestWireBytes() {
+        return requestWireBytes.sum();
+    }
+
+    @Override
+    public long getResponseWireBytes() {
+        return responseWireBytes.sum();
+    }
+
+    @Override
+    public long getResponseBodyBytes() {
+        return responseBodyBytes.sum();
+    }
+
+    @Override
+    public long getRoundTripMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(roundTripNanos.sum());
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        requestBodyBytes.reset();
+        requestWireBytes.reset();
+        responseWireBytes.reset();
+        responseBodyBytes.reset();
+        roundTripNanos.reset();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+/**
+ * Totals for every HTTP mode Thrift call made by the JVM, registered with the platform MBean server as {@code veil.hdp.hive.jdbc:type=HttpTransport}.
+ * Comparing body bytes with wire bytes shows what compression saves; dividing the round trip time by the request count shows per-request overhead.
+ */
+public interface HttpTransportMetricsMXBean {
+
+    long getRequests();
+
+    long getRequestBodyBytes();
+
+    long getRequestWireBytes();
+
+    long getResponseWireBytes();
+
+    long getResponseBodyBytes();
+
+    long getRoundTripMillis();
+
+    void reset();
+}
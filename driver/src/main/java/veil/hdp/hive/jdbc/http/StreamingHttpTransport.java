@@ -0,0 +1,341 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An HTTP Thrift transport that, unlike {@code THttpClient}, never copies a whole message into one array.  The request is collected in fixed size
+ * chunks and written to the connection chunk by chunk; the response is deserialized straight from the connection through a bounded buffer, so even a
+ * very large {@code FetchResults} page is never held in memory as raw bytes.  A response that fits in one buffer is read whole and its connection
+ * returned to the pool before {@link #flush()} returns; a larger one holds its connection until it is read to the end, {@link #readEnd()} is called or
+ * the next call starts writing.
+ */
+public class StreamingHttpTransport extends TTransport {
+
+    private static final Logger log = LogManager.getLogger(StreamingHttpTransport.class);
+
+    private static final String THRIFT_CONTENT_TYPE = "application/x-thrift";
+
+    private final String url;
+    private final CloseableHttpClient client;
+    private final int bufferSize;
+    private final HttpClientContext context;
+
+    // the first chunk is kept between calls; any more are dropped once the request is sent so one large request does not pin its memory
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int chunkCount;
+    private int chunkPosition;
+    private long requestLength;
+
+    private CloseableHttpResponse response;
+    private InputStream responseStream;
+    private byte[] responseHead;
+    private volatile boolean open = true;
+
+    /**
+     * @param authState the connection's authentication state when the client is shared by many connections, otherwise null
+     */
+    public StreamingHttpTransport(String url, CloseableHttpClient client, int bufferSize, HttpAuthState authState) {
+        this.url = url;
+        this.client = client;
+        this.bufferSize = bufferSize;
+        this.context = authState != null ? authState.createContext() : HttpClientContext.create();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void open() {
+        // connections are opened by the client as requests are made
+    }
+
+    @Override
+    public void close() {
+        open = false;
+
+        releaseResponse();
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        if (responseStream == null) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "no response to read; a request must be flushed first");
+        }
+
+        try {
+            int count = responseStream.read(buf, off, len);
+
+            if (count == -1) {
+                releaseResponse();
+
+                throw new TTransportException(TTransportException.END_OF_FILE, "no more data available");
+            }
+
+            return count;
+        } catch (IOException e) {
+            releaseResponse();
+
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        // a new call; whatever is left of the previous response is of no further use
+        if (response != null) {
+            releaseResponse();
+        }
+
+        requestLength += len;
+
+        while (len > 0) {
+            if (chunkCount == 0 || chunkPosition == bufferSize) {
+                if (chunkCount == chunks.size()) {
+                    chunks.add(new byte[bufferSize]);
+                }
+
+                chunkCount++;
+                chunkPosition = 0;
+            }
+
+            byte[] chunk = chunks.get(chunkCount - 1);
+
+            int count = Math.min(len, bufferSize - chunkPosition);
+
+            System.arraycopy(buf, off, chunk, chunkPosition, count);
+
+            chunkPosition += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        if (!open) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "transport is closed");
+        }
+
+        HttpPost post = new HttpPost(url);
+        post.setHeader(HttpHeaders.CONTENT_TYPE, THRIFT_CONTENT_TYPE);
+        post.setHeader(HttpHeaders.ACCEPT, THRIFT_CONTENT_TYPE);
+        post.setEntity(new ChunkListEntity(chunks.subList(0, chunkCount), chunkPosition, requestLength));
+
+        try {
+            // the body is written, and rewritten on a retry, before execute returns
+            response = client.execute(post, context);
+
+            int statusCode = response.getStatusLine().getStatusCode();
+
+            // a replayed auth cookie the server no longer accepts; without it the retry authenticates again
+            if (statusCode == HttpStatus.SC_UNAUTHORIZED && discardCookies()) {
+                releaseResponse();
+
+                response = client.execute(post, context);
+
+                statusCode = response.getStatusLine().getStatusCode();
+            }
+
+            if (statusCode != HttpStatus.SC_OK) {
+                releaseResponse();
+
+                throw new TTransportException("HTTP Response code: " + statusCode);
+            }
+
+            HttpEntity entity = response.getEntity();
+
+            if (entity == null) {
+                releaseResponse();
+
+                throw new TTransportException("HTTP response has no body");
+            }
+
+            InputStream content = entity.getContent();
+
+            if (responseHead == null) {
+                responseHead = new byte[bufferSize];
+            }
+
+            int headLength = readHead(content, responseHead);
+
+            if (headLength < bufferSize) {
+                // the whole reply is buffered; Thrift never reads past the end of a message, so release the connection now
+                releaseResponse();
+
+                responseStream = new ByteArrayInputStream(responseHead, 0, headLength);
+            } else {
+                responseStream = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(responseHead, 0, headLength), content), bufferSize);
+            }
+
+        } catch (IOException e) {
+            releaseResponse();
+
+            throw new TTransportException(e);
+        } finally {
+            resetRequest();
+        }
+    }
+
+    /**
+     * Releases the connection still held by the last response, if any.  Called once a reply has been deserialized, because Thrift stops reading at the
+     * end of a message and never sees the end of the stream.
+     */
+    public void readEnd() {
+        if (response != null) {
+            releaseResponse();
+        }
+    }
+
+    private static int readHead(InputStream content, byte[] head) throws IOException {
+        int length = 0;
+
+        while (length < head.length) {
+            int count = content.read(head, length, head.length - length);
+
+            if (count == -1) {
+                break;
+            }
+
+            length += count;
+        }
+
+        return length;
+    }
+
+    private void resetRequest() {
+        if (chunks.size() > 1) {
+            chunks.subList(1, chunks.size()).clear();
+        }
+
+        chunkCount = 0;
+        chunkPosition = 0;
+        requestLength = 0;
+    }
+
+    private boolean discardCookies() {
+        CookieStore cookieStore = context.getCookieStore();
+
+        if (cookieStore == null || cookieStore.getCookies().isEmpty()) {
+            return false;
+        }
+
+        log.debug("request with replayed cookies was rejected; clearing cookie store");
+
+        cookieStore.clear();
+
+        return true;
+    }
+
+    private void releaseResponse() {
+        CloseableHttpResponse current = response;
+
+        response = null;
+        responseStream = null;
+
+        if (current != null) {
+            try {
+                // reading to the end, rather than closing, lets the connection be reused
+                EntityUtils.consume(current.getEntity());
+                current.close();
+            } catch (IOException e) {
+                log.debug("unable to release http response: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static class ChunkListEntity extends AbstractHttpEntity {
+
+        private final List<byte[]> chunks;
+        private final int lastChunkLength;
+        private final long length;
+
+        ChunkListEntity(List<byte[]> chunks, int lastChunkLength, long length) {
+            this.chunks = chunks;
+            this.lastChunkLength = lastChunkLength;
+            this.length = length;
+
+            setContentType(THRIFT_CONTENT_TYPE);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            List<InputStream> streams = new ArrayList<>(chunks.size());
+
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] chunk = chunks.get(i);
+
+                streams.add(new ByteArrayInputStream(chunk, 0, i == chunks.size() - 1 ? lastChunkLength : chunk.length));
+            }
+
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            for (int i = 0; i < chunks.size(); i++) {
+                byte[] chunk = chunks.get(i);
+
+                outStream.write(chunk, 0, i == chunks.size() - 1 ? lastChunkLength : chunk.length);
+            }
+
+            outStream.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
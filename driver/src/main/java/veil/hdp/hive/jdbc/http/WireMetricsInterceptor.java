@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.http;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Counts body bytes as they cross the wire, after request compression and before response decompression.
+ *
+ * @see BodyMetricsInterceptor
+ */
+public class WireMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private final HttpTransportMetrics metrics = HttpTransportMetrics.getInstance();
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+
+            if (enclosingRequest.getEntity() != null) {
+                enclosingRequest.setEntity(new CountingEntity(enclosingRequest.getEntity(), metrics::addRequestWireBytes));
+            }
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        if (response.getEntity() != null) {
+            response.setEntity(new CountingEntity(response.getEntity(), metrics::addResponseWireBytes));
+        }
+    }
+}
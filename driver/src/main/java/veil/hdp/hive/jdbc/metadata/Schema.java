@@ -81,6 +81,8 @@ public class Schema {
 
         private List<ColumnDescriptor> columnDescriptors;
 
+        private TTableSchema tableSchema;
+
         private SchemaBuilder() {
         }
 
@@ -95,6 +97,11 @@ public class Schema {
         }
 
 
+        public SchemaBuilder tableSchema(TTableSchema tableSchema) {
+            this.tableSchema = tableSchema;
+            return this;
+        }
+
         public SchemaBuilder descriptors(List<ColumnDescriptor> columnDescriptors) {
             this.columnDescriptors = columnDescriptors;
             return this;
@@ -110,7 +117,9 @@ public class Schema {
                 }
             } else {
 
-                TTableSchema tableSchema = ThriftUtils.getTableSchema(thriftSession, operationHandle);
+                if (tableSchema == null) {
+                    tableSchema = ThriftUtils.getTableSchema(thriftSession, operationHandle);
+                }
 
                 for (TColumnDesc columnDesc : tableSchema.getColumns()) {
                     ColumnDescriptor descriptor = ColumnDescriptor.builder().session(thriftSession).thriftColumn(columnDesc).build();
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.security;
+
+import org.apache.commons.codec.binary.Base64;
+import veil.hdp.hive.jdbc.HiveException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A Hadoop delegation token as issued by {@code GetDelegationToken}: the url safe base64 encoding of the token's Writable form.  Only the identifier
+ * and password are needed; SASL DIGEST-MD5 uses their base64 encodings as user name and password.
+ */
+public class DelegationToken {
+
+    private final String encoded;
+    private final byte[] identifier;
+    private final byte[] password;
+
+    private DelegationToken(String encoded, byte[] identifier, byte[] password) {
+        this.encoded = encoded;
+        this.identifier = identifier;
+        this.password = password;
+    }
+
+    public static DelegationToken decode(String encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.decodeBase64(encoded)))) {
+            byte[] identifier = readBytes(in);
+            byte[] password = readBytes(in);
+
+            return new DelegationToken(encoded, identifier, password);
+        } catch (IOException e) {
+            throw new HiveException("invalid delegation token", e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        long length = readVLong(in);
+
+        if (length < 0 || length > in.available()) {
+            throw new IOException("invalid length [" + length + ']');
+        }
+
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+    // hadoop's WritableUtils.readVLong: small values take one byte; otherwise the first byte holds the sign and the number of bytes that follow
+    private static long readVLong(DataInputStream in) throws IOException {
+        byte first = in.readByte();
+
+        if (first >= -112) {
+            return first;
+        }
+
+        boolean negative = first < -120;
+        int size = negative ? -(first + 120) : -(first + 112);
+
+        long value = 0;
+
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (in.readByte() & 0xFF);
+        }
+
+        return negative ? ~value : value;
+    }
+
+    /**
+     * @return the token as issued by the server, which is what HTTP mode sends
+     */
+    public String getEncoded() {
+        return encoded;
+    }
+
+    public String getSaslUser() {
+        return Base64.encodeBase64String(identifier);
+    }
+
+    public char[] getSaslPassword() {
+        return Base64.encodeBase64String(password).toCharArray();
+    }
+}
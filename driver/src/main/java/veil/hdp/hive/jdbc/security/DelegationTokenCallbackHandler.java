@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.security;
+
+import javax.security.auth.callback.*;
+import javax.security.sasl.RealmCallback;
+import javax.security.sasl.RealmChoiceCallback;
+
+public class DelegationTokenCallbackHandler implements CallbackHandler {
+
+    private final DelegationToken token;
+
+    public DelegationTokenCallbackHandler(DelegationToken token) {
+        this.token = token;
+    }
+
+    @Override
+    public void handle(Callback[] callbacks) throws UnsupportedCallbackException {
+
+        for (Callback callback : callbacks) {
+            if (callback instanceof NameCallback) {
+                ((NameCallback) callback).setName(token.getSaslUser());
+            } else if (callback instanceof PasswordCallback) {
+                ((PasswordCallback) callback).setPassword(token.getSaslPassword());
+            } else if (callback instanceof RealmCallback) {
+                RealmCallback realmCallback = (RealmCallback) callback;
+                realmCallback.setText(realmCallback.getDefaultText());
+            } else if (!(callback instanceof RealmChoiceCallback)) {
+                throw new UnsupportedCallbackException(callback, "callback class is not supported [" + callback.getClass().getName() + ']');
+            }
+        }
+    }
+}
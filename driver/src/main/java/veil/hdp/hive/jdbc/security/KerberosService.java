@@ -16,10 +16,12 @@
 
 package veil.hdp.hive.jdbc.security;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.ietf.jgss.*;
+import veil.hdp.hive.jdbc.AuthenticationMode;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
 import veil.hdp.hive.jdbc.utils.PlatformUtils;
@@ -28,8 +30,11 @@ import veil.hdp.hive.jdbc.utils.PrincipalUtils;
 import javax.security.auth.Subject;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
+import java.nio.charset.StandardCharsets;
 import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -104,10 +109,12 @@ public final class KerberosService {
 
         boolean debugJaas = HiveDriverProperty.JAAS_DEBUG_ENABLED.getBoolean(properties);
 
+        boolean cacheSubject = HiveDriverProperty.KERBEROS_SUBJECT_CACHE_ENABLED.getBoolean(properties);
+
         if (kerberosMode == KerberosMode.PREAUTH) {
             return getPreAuthenticatedSubject();
         } else if (kerberosMode == KerberosMode.OS) {
-            return loginFromOperatingSystem(debugJaas);
+            return login(cacheSubject, getIdentity(properties), () -> loginFromOperatingSystem(debugJaas));
         } else {
             UserPrincipal userPrincipal = PrincipalUtils.parseUserPrincipal(HiveDriverProperty.USER.get(properties));
 
@@ -116,11 +123,11 @@ public final class KerberosService {
             if (kerberosMode == KerberosMode.KEYTAB) {
                 String keyTab = HiveDriverProperty.KERBEROS_USER_KEYTAB.get(properties);
 
-                return loginWithKeytab(userPrincipal, keyTab, debugJaas);
+                return login(cacheSubject, getIdentity(properties), () -> loginWithKeytab(userPrincipal, keyTab, debugJaas));
             } else if (kerberosMode == KerberosMode.PASSWORD) {
                 String password = HiveDriverProperty.PASSWORD.get(properties);
 
-                return loginWithPassword(userPrincipal, password, debugJaas);
+                return login(cacheSubject, getIdentity(properties), () -> loginWithPassword(userPrincipal, password, debugJaas));
             }
         }
 
@@ -129,6 +136,62 @@ public final class KerberosService {
 
     }
 
+    /**
+     * @return a key naming who the connection authenticates as, including the credentials used; connections with equal keys may share a
+     * login and anything obtained with it
+     */
+    public static String getIdentity(Properties properties) {
+        KerberosMode kerberosMode = KerberosMode.valueOf(HiveDriverProperty.KERBEROS_MODE.get(properties));
+
+        switch (kerberosMode) {
+            case PREAUTH:
+                Subject subject = getPreAuthenticatedSubject();
+
+                return "PREAUTH:" + (subject != null ? subject.getPrincipals() : null);
+            case OS:
+                return "OS:" + System.getProperty("user.name");
+            case KEYTAB:
+                return "KEYTAB:" + PrincipalUtils.parseUserPrincipal(HiveDriverProperty.USER.get(properties)).getUser() + ':' + HiveDriverProperty.KERBEROS_USER_KEYTAB.get(properties);
+            case PASSWORD:
+                return "PASSWORD:" + PrincipalUtils.parseUserPrincipal(HiveDriverProperty.USER.get(properties)).getUser() + ':' + digest(HiveDriverProperty.PASSWORD.get(properties));
+        }
+
+        throw new IllegalArgumentException("kerberos mode [" + kerberosMode + "] is not supported!");
+    }
+
+    /**
+     * Drops the cached login for the connection's identity, so the next connection logs in again rather than reusing credentials the server
+     * rejected.
+     */
+    public static void invalidateSubject(Properties properties) {
+        if (AuthenticationMode.valueOf(HiveDriverProperty.AUTHENTICATION_MODE.get(properties)) != AuthenticationMode.KERBEROS
+                || !HiveDriverProperty.KERBEROS_SUBJECT_CACHE_ENABLED.getBoolean(properties)
+                || KerberosMode.valueOf(HiveDriverProperty.KERBEROS_MODE.get(properties)) == KerberosMode.PREAUTH) {
+            return;
+        }
+
+        KerberosSubjectCache.invalidate(getIdentity(properties));
+    }
+
+    private static Subject login(boolean cacheSubject, String key, KerberosSubjectCache.Login login) throws LoginException {
+        return cacheSubject ? KerberosSubjectCache.getSubject(key, login) : login.login();
+    }
+
+    // the password only becomes part of the cache key as a digest; a plain hash code could collide and hand out another login
+    private static String digest(String password) {
+        if (password == null) {
+            return "";
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            return Hex.encodeHexString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new HiveException(e);
+        }
+    }
+
     public static Subject loginWithPassword(UserPrincipal principal, String password, boolean debugJaas) throws LoginException {
 
         String configName = "fromPassword";
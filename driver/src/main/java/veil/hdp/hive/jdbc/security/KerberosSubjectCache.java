@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.security;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one logged in {@link Subject} per principal so the JAAS login (and the KDC round trip behind it) happens once per ticket lifetime
+ * instead of once per connection.  A single daemon thread logs in again once 80% of the TGT lifetime has passed; the new subject replaces the
+ * old one, which stays valid for the connections already using it until its own ticket expires.  A login no connection has asked for in
+ * {@value #IDLE_MINUTES} minutes is dropped and no longer renewed, along with the credentials it would log in with again.
+ */
+final class KerberosSubjectCache {
+
+    private static final Logger log = LogManager.getLogger(KerberosSubjectCache.class);
+
+    private static final double RENEWAL_FRACTION = 0.8;
+    // subjects without a TGT (ie the OS login modules) are refreshed on this schedule
+    private static final long DEFAULT_LIFETIME = TimeUnit.HOURS.toMillis(1);
+    private static final long MINIMUM_DELAY = TimeUnit.SECONDS.toMillis(10);
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final long IDLE_MINUTES = 30;
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(IDLE_MINUTES);
+    private static final long EVICTION_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, CachedLogin> LOGINS = new ConcurrentHashMap<>();
+
+    private static final ScheduledThreadPoolExecutor RENEWER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-kerberos-renewal-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        RENEWER.setRemoveOnCancelPolicy(true);
+        RENEWER.scheduleWithFixedDelay(KerberosSubjectCache::evictIdle, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private KerberosSubjectCache() {
+    }
+
+    static Subject getSubject(String key, Login login) throws LoginException {
+        return LOGINS.computeIfAbsent(key, k -> new CachedLogin(k, login)).getSubject();
+    }
+
+    static void invalidate(String key) {
+        CachedLogin cached = LOGINS.remove(key);
+
+        if (cached != null) {
+            cached.cancel();
+        }
+    }
+
+    private static void evictIdle() {
+        for (CachedLogin cached : LOGINS.values()) {
+            if (cached.isIdle() && LOGINS.remove(cached.key, cached)) {
+                log.debug("evicting idle kerberos login [{}]", cached.key);
+
+                cached.cancel();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Login {
+        Subject login() throws LoginException;
+    }
+
+    private static class LoginState {
+        private final Subject subject;
+        private final long expiration;
+
+        LoginState(Subject subject, long expiration) {
+            this.subject = subject;
+            this.expiration = expiration;
+        }
+
+        boolean isValid() {
+            return System.currentTimeMillis() < expiration;
+        }
+    }
+
+    private static class CachedLogin implements Runnable {
+        private final String key;
+        private final Login login;
+
+        private volatile LoginState state;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private ScheduledFuture<?> renewal;
+
+        CachedLogin(String key, Login login) {
+            this.key = key;
+            this.login = login;
+        }
+
+        Subject getSubject() throws LoginException {
+            lastUsed = System.currentTimeMillis();
+
+            LoginState current = state;
+
+            if (current != null && current.isValid()) {
+                return current.subject;
+            }
+
+            synchronized (this) {
+                if (state == null || !state.isValid()) {
+                    update(login.login());
+                }
+
+                return state.subject;
+            }
+        }
+
+        boolean isIdle() {
+            return System.currentTimeMillis() - lastUsed > IDLE_TIMEOUT;
+        }
+
+        @Override
+        public void run() {
+            // evicted, or about to be; nobody would use the renewed login
+            if (LOGINS.get(key) != this || isIdle()) {
+                return;
+            }
+
+            try {
+                Subject subject = login.login();
+
+                synchronized (this) {
+                    update(subject);
+                }
+
+                log.debug("renewed kerberos login [{}]", key);
+            } catch (LoginException | RuntimeException e) {
+                log.warn("unable to renew kerberos login [" + key + "]; retrying in " + RETRY_DELAY + " ms", e);
+
+                synchronized (this) {
+                    // once the ticket is gone the next connection logs in on its own thread
+                    if (state != null && state.isValid()) {
+                        schedule(RETRY_DELAY);
+                    }
+                }
+            }
+        }
+
+        private void update(Subject subject) {
+            long now = System.currentTimeMillis();
+            long start = now;
+            long end = now + DEFAULT_LIFETIME;
+
+            KerberosTicket tgt = findTicketGrantingTicket(subject);
+
+            if (tgt != null) {
+                Date startTime = tgt.getStartTime() != null ? tgt.getStartTime() : tgt.getAuthTime();
+
+                if (startTime != null) {
+                    start = startTime.getTime();
+                }
+
+                end = tgt.getEndTime().getTime();
+            }
+
+            state = new LoginState(subject, end);
+
+            long renewAt = start + (long) ((end - start) * RENEWAL_FRACTION);
+
+            schedule(Math.max(renewAt - now, MINIMUM_DELAY));
+
+            log.debug("cached kerberos login [{}] valid until [{}]", key, new Date(end));
+        }
+
+        private void schedule(long delay) {
+            cancel();
+
+            renewal = RENEWER.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void cancel() {
+            if (renewal != null) {
+                renewal.cancel(false);
+                renewal = null;
+            }
+        }
+    }
+
+    private static KerberosTicket findTicketGrantingTicket(Subject subject) {
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getServer() != null && ticket.getServer().getName().startsWith("krbtgt/")) {
+                return ticket;
+            }
+        }
+
+        return null;
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.http.protocol.HttpContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.http.HttpAuthState;
 import veil.hdp.hive.jdbc.security.KerberosService;
 import veil.hdp.hive.jdbc.security.ServicePrincipal;
 import veil.hdp.hive.jdbc.utils.PrincipalUtils;
@@ -34,6 +35,7 @@ import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 
@@ -43,10 +45,15 @@ public class KerberosRequestInterceptor implements HttpRequestInterceptor {
     private static final Logger log = LogManager.getLogger(KerberosRequestInterceptor.class);
 
     private static final Base64 BASE_64 = new Base64(0);
+    private static final String DELEGATION_TOKEN_HEADER = "X-Hive-Delegation-Token";
 
     private final Properties properties;
     private final CookieStore cookieStore;
 
+    /**
+     * @param properties  connection properties, or null when the client is shared and each request carries an {@link HttpAuthState}
+     * @param cookieStore store for the authentication cookie, or null to authenticate every request
+     */
     public KerberosRequestInterceptor(Properties properties, CookieStore cookieStore) {
         this.properties = properties;
         this.cookieStore = cookieStore;
@@ -55,6 +62,16 @@ public class KerberosRequestInterceptor implements HttpRequestInterceptor {
     @Override
     public void process(HttpRequest request, HttpContext context) {
 
+        HttpAuthState authState = (HttpAuthState) context.getAttribute(HttpAuthState.ATTRIBUTE);
+
+        Properties properties = authState != null ? authState.getProperties() : this.properties;
+        CookieStore cookieStore = authState != null ? authState.getCookieStore() : this.cookieStore;
+
+        if (properties == null) {
+            log.error("no connection properties available to authenticate request");
+            return;
+        }
+
         boolean authenticate = true;
 
         if (cookieStore != null) {
@@ -66,9 +83,17 @@ public class KerberosRequestInterceptor implements HttpRequestInterceptor {
 
             if (cookies != null && !cookies.isEmpty()) {
 
+                Date now = new Date();
+
                 for (Cookie cookie : cookies) {
                     log.debug("cookie name [{}], cookie value [{}]", cookie.getName(), cookie.getValue());
 
+                    // the store may be shared by many connections and is only purged when a connection is created
+                    if (cookie.isExpired(now)) {
+                        log.debug("cookie name [{}] has expired; skipping", cookie.getName());
+                        continue;
+                    }
+
                     if (cookie.isSecure() && !HiveDriverProperty.SSL_ENABLED.getBoolean(properties)) {
                         log.debug("cookie name [{}] is secure but SSL is not enabled; skipping", cookie.getName());
                         continue;
@@ -86,6 +111,14 @@ public class KerberosRequestInterceptor implements HttpRequestInterceptor {
             }
         }
 
+        if (authenticate && HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.hasValue(properties)) {
+            log.debug("authenticate with delegation token");
+
+            request.addHeader(DELEGATION_TOKEN_HEADER, HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.get(properties));
+
+            return;
+        }
+
         log.debug("authenticate with kerberos and retrieve ticket [{}]", authenticate);
 
         if (authenticate) {
@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.thrift.TException;
+import veil.hdp.hive.jdbc.bindings.*;
+
+/**
+ * Implements every {@link TCLIService.Iface} method by handing the call to {@link #invoke(String, Call)}, so that subclasses decide how a call is
+ * dispatched in one place rather than once per method.
+ */
+public abstract class DelegatingClient implements TCLIService.Iface {
+
+    /**
+     * Runs a single call against the client that was chosen for it.
+     */
+    @FunctionalInterface
+    protected interface Call<T> {
+        T call(TCLIService.Iface client) throws TException;
+    }
+
+    /**
+     * @param method the Thrift method name, eg. {@code FetchResults}
+     * @param call   the call to run
+     * @return the response of the call
+     */
+    protected abstract <T> T invoke(String method, Call<T> call) throws TException;
+
+    @Override
+    public TOpenSessionResp OpenSession(TOpenSessionReq req) throws TException {
+        return invoke("OpenSession", client -> client.OpenSession(req));
+    }
+
+    @Override
+    public TCloseSessionResp CloseSession(TCloseSessionReq req) throws TException {
+        return invoke("CloseSession", client -> client.CloseSession(req));
+    }
+
+    @Override
+    public TGetInfoResp GetInfo(TGetInfoReq req) throws TException {
+        return invoke("GetInfo", client -> client.GetInfo(req));
+    }
+
+    @Override
+    public TExecuteStatementResp ExecuteStatement(TExecuteStatementReq req) throws TException {
+        return invoke("ExecuteStatement", client -> client.ExecuteStatement(req));
+    }
+
+    @Override
+    public TGetTypeInfoResp GetTypeInfo(TGetTypeInfoReq req) throws TException {
+        return invoke("GetTypeInfo", client -> client.GetTypeInfo(req));
+    }
+
+    @Override
+    public TGetCatalogsResp GetCatalogs(TGetCatalogsReq req) throws TException {
+        return invoke("GetCatalogs", client -> client.GetCatalogs(req));
+    }
+
+    @Override
+    public TGetSchemasResp GetSchemas(TGetSchemasReq req) throws TException {
+        return invoke("GetSchemas", client -> client.GetSchemas(req));
+    }
+
+    @Override
+    public TGetTablesResp GetTables(TGetTablesReq req) throws TException {
+        return invoke("GetTables", client -> client.GetTables(req));
+    }
+
+    @Override
+    public TGetTableTypesResp GetTableTypes(TGetTableTypesReq req) throws TException {
+        return invoke("GetTableTypes", client -> client.GetTableTypes(req));
+    }
+
+    @Override
+    public TGetColumnsResp GetColumns(TGetColumnsReq req) throws TException {
+        return invoke("GetColumns", client -> client.GetColumns(req));
+    }
+
+    @Override
+    public TGetFunctionsResp GetFunctions(TGetFunctionsReq req) throws TException {
+        return invoke("GetFunctions", client -> client.GetFunctions(req));
+    }
+
+    @Override
+    public TGetPrimaryKeysResp GetPrimaryKeys(TGetPrimaryKeysReq req) throws TException {
+        return invoke("GetPrimaryKeys", client -> client.GetPrimaryKeys(req));
+    }
+
+    @Override
+    public TGetCrossReferenceResp GetCrossReference(TGetCrossReferenceReq req) throws TException {
+        return invoke("GetCrossReference", client -> client.GetCrossReference(req));
+    }
+
+    @Override
+    public TGetOperationStatusResp GetOperationStatus(TGetOperationStatusReq req) throws TException {
+        return invoke("GetOperationStatus", client -> client.GetOperationStatus(req));
+    }
+
+    @Override
+    public TCancelOperationResp CancelOperation(TCancelOperationReq req) throws TException {
+        return invoke("CancelOperation", client -> client.CancelOperation(req));
+    }
+
+    @Override
+    public TCloseOperationResp CloseOperation(TCloseOperationReq req) throws TException {
+        return invoke("CloseOperation", client -> client.CloseOperation(req));
+    }
+
+    @Override
+    public TGetResultSetMetadataResp GetResultSetMetadata(TGetResultSetMetadataReq req) throws TException {
+        return invoke("GetResultSetMetadata", client -> client.GetResultSetMetadata(req));
+    }
+
+    @Override
+    public TFetchResultsResp FetchResults(TFetchResultsReq req) throws TException {
+        return invoke("FetchResults", client -> client.FetchResults(req));
+    }
+
+    @Override
+    public TGetDelegationTokenResp GetDelegationToken(TGetDelegationTokenReq req) throws TException {
+        return invoke("GetDelegationToken", client -> client.GetDelegationToken(req));
+    }
+
+    @Override
+    public TCancelDelegationTokenResp CancelDelegationToken(TCancelDelegationTokenReq req) throws TException {
+        return invoke("CancelDelegationToken", client -> client.CancelDelegationToken(req));
+    }
+
+    @Override
+    public TRenewDelegationTokenResp RenewDelegationToken(TRenewDelegationTokenReq req) throws TException {
+        return invoke("RenewDelegationToken", client -> client.RenewDelegationToken(req));
+    }
+
+    @Override
+    public TGetQueryIdResp GetQueryId(TGetQueryIdReq req) throws TException {
+        return invoke("GetQueryId", client -> client.GetQueryId(req));
+    }
+
+    @Override
+    public TSetClientInfoResp SetClientInfo(TSetClientInfoReq req) throws TException {
+        return invoke("SetClientInfo", client -> client.SetClientInfo(req));
+    }
+}
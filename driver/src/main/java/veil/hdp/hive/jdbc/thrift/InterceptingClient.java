@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import veil.hdp.hive.jdbc.bindings.TCLIService;
+import veil.hdp.hive.jdbc.http.StreamingHttpTransport;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delegates every call to a client bound to a single transport.  Calls are serialized with the transport's lock and passed through the
+ * {@link InterceptorChain}; when the chain is empty a call costs one lock acquisition on top of the underlying client.  Unchecked failures of the
+ * underlying client are reported as {@link TException}s.  A {@link TTransportException} is never retried: the request may be half written or its reply
+ * half read, so the transport is left for the caller to invalidate or reconnect.  Over a {@link StreamingHttpTransport} the reply's connection is released once each call
+ * returns.
+ */
+public class InterceptingClient extends DelegatingClient {
+
+    private final TCLIService.Iface client;
+    private final StreamingHttpTransport streamingTransport;
+    private final ReentrantLock lock;
+    private final InterceptorChain chain;
+
+    public InterceptingClient(TCLIService.Iface client, TTransport transport, ReentrantLock lock, InterceptorChain chain) {
+        this.client = client;
+        this.streamingTransport = transport instanceof StreamingHttpTransport ? (StreamingHttpTransport) transport : null;
+        this.lock = lock;
+        this.chain = chain;
+    }
+
+    @Override
+    protected <T> T invoke(String method, Call<T> call) throws TException {
+        if (chain.isEmpty()) {
+            lock.lock();
+
+            try {
+                return call.call(client);
+            } catch (RuntimeException e) {
+                throw new TException("Error in calling method " + method, e);
+            } finally {
+                readEnd();
+
+                lock.unlock();
+            }
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            long start = chain.before(method);
+
+            lock.lock();
+
+            try {
+                T resp = call.call(client);
+                chain.after(method, start, null);
+                return resp;
+            } catch (TException | RuntimeException e) {
+                chain.after(method, start, e);
+
+                if (e instanceof TTransportException || !chain.shouldRetry(method, e, attempt)) {
+                    if (e instanceof RuntimeException) {
+                        throw new TException("Error in calling method " + method, e);
+                    }
+
+                    throw e;
+                }
+            } finally {
+                readEnd();
+
+                lock.unlock();
+            }
+        }
+    }
+
+    private void readEnd() {
+        if (streamingTransport != null) {
+            streamingTransport.readEnd();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import veil.hdp.hive.jdbc.Builder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable, ordered list of {@link RpcInterceptor}s.  Iterates a plain array so that running the chain allocates nothing.
+ */
+public final class InterceptorChain {
+
+    public static final InterceptorChain EMPTY = new InterceptorChain(new RpcInterceptor[0]);
+
+    private final RpcInterceptor[] interceptors;
+
+    private InterceptorChain(RpcInterceptor[] interceptors) {
+        this.interceptors = interceptors;
+    }
+
+    public static InterceptorChainBuilder builder() {
+        return new InterceptorChainBuilder();
+    }
+
+    public boolean isEmpty() {
+        return interceptors.length == 0;
+    }
+
+    /**
+     * @return the start time of the call, to be passed to {@link #after(String, long, Throwable)}
+     */
+    public long before(String method) {
+        for (RpcInterceptor interceptor : interceptors) {
+            interceptor.before(method);
+        }
+
+        return System.nanoTime();
+    }
+
+    public void after(String method, long start, Throwable error) {
+        long elapsed = System.nanoTime() - start;
+
+        // reverse order so the first interceptor wraps all the others
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            interceptors[i].after(method, elapsed, error);
+        }
+    }
+
+    /**
+     * @return true if any interceptor asks for the call to be retried
+     */
+    public boolean shouldRetry(String method, Throwable error, int attempt) {
+        for (RpcInterceptor interceptor : interceptors) {
+            if (interceptor.shouldRetry(method, error, attempt)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static class InterceptorChainBuilder implements Builder<InterceptorChain> {
+
+        private final List<RpcInterceptor> interceptors = new ArrayList<>();
+
+        private InterceptorChainBuilder() {
+        }
+
+        public InterceptorChainBuilder add(RpcInterceptor interceptor) {
+            if (interceptor != null) {
+                interceptors.add(interceptor);
+            }
+
+            return this;
+        }
+
+        public InterceptorChain build() {
+            if (interceptors.isEmpty()) {
+                return EMPTY;
+            }
+
+            return new InterceptorChain(interceptors.toArray(new RpcInterceptor[0]));
+        }
+    }
+}
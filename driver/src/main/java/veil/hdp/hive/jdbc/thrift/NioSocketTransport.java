@@ -0,0 +1,426 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import veil.hdp.hive.jdbc.Builder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A plain (non-SSL) socket transport built on a non-blocking {@link SocketChannel}.  Reads and writes go through direct buffers taken from a pool
+ * shared by every transport, so the channel never falls back to the JDK's per-thread temporary direct buffers and no buffer is allocated per
+ * connection.  Data is copied between the caller's array and the direct buffers on the Java side.  Timeouts are enforced with a per-transport
+ * {@link Selector}.
+ */
+public class NioSocketTransport extends TTransport {
+
+    private static final Logger log = LogManager.getLogger(NioSocketTransport.class);
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private final String host;
+    private final int port;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final int bufferSize;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+
+    private volatile SocketChannel channel;
+    private Selector selector;
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+
+    // buffers go back to the pool only once no call is using them; close may come from another thread mid-read
+    private volatile boolean busy;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private NioSocketTransport(String host, int port, int connectTimeout, int socketTimeout, int bufferSize, int receiveBufferSize, int sendBufferSize, boolean tcpNoDelay, boolean keepAlive) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.bufferSize = bufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.sendBufferSize = sendBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+    }
+
+    public static NioSocketTransportBuilder builder() {
+        return new NioSocketTransportBuilder();
+    }
+
+    @Override
+    public boolean isOpen() {
+        SocketChannel current = channel;
+
+        return current != null && current.isConnected();
+    }
+
+    @Override
+    public void open() throws TTransportException {
+        if (isOpen()) {
+            throw new TTransportException(TTransportException.ALREADY_OPEN, "socket already connected");
+        }
+
+        try {
+            selector = Selector.open();
+
+            SocketChannel opening = SocketChannel.open();
+
+            // published before connecting so a close from another thread can abort the connect
+            channel = opening;
+
+            opening.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            opening.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+
+            // must be set before connecting for the window scale to be negotiated
+            if (receiveBufferSize > 0) {
+                opening.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+
+            if (sendBufferSize > 0) {
+                opening.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+
+            opening.configureBlocking(false);
+
+            if (!opening.connect(new InetSocketAddress(host, port))) {
+                while (!opening.finishConnect()) {
+                    await(SelectionKey.OP_CONNECT, connectTimeout);
+                }
+            }
+
+            readBuffer = takeBuffer();
+            readBuffer.flip();
+            writeBuffer = takeBuffer();
+
+            // the buffers of a previous open went back to the pool on close
+            released.set(false);
+
+        } catch (TTransportException e) {
+            close();
+
+            throw e;
+        } catch (IOException e) {
+            close();
+
+            throw new TTransportException(TTransportException.NOT_OPEN, "unable to connect to " + host + ':' + port, e);
+        }
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+        busy = true;
+
+        try {
+            return fill(checkOpen(), buf, off, len);
+        } finally {
+            exit();
+        }
+    }
+
+    private int fill(SocketChannel current, byte[] buf, int off, int len) throws TTransportException {
+        if (readBuffer.hasRemaining()) {
+            int count = Math.min(len, readBuffer.remaining());
+
+            readBuffer.get(buf, off, count);
+
+            return count;
+        }
+
+        readBuffer.clear();
+
+        try {
+            int count;
+
+            // always into the direct buffer; a heap target would make the JDK copy through a temporary direct buffer of its own
+            while ((count = current.read(readBuffer)) == 0) {
+                await(SelectionKey.OP_READ, socketTimeout);
+            }
+
+            readBuffer.flip();
+
+            if (count < 0) {
+                return eof();
+            }
+
+            int read = Math.min(len, readBuffer.remaining());
+
+            readBuffer.get(buf, off, read);
+
+            return read;
+
+        } catch (IOException e) {
+            readBuffer.position(0).limit(0);
+
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+        busy = true;
+
+        try {
+            SocketChannel current = checkOpen();
+
+            while (len > 0) {
+                if (!writeBuffer.hasRemaining()) {
+                    drain(current);
+                }
+
+                int count = Math.min(len, writeBuffer.remaining());
+
+                writeBuffer.put(buf, off, count);
+
+                off += count;
+                len -= count;
+            }
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public void flush() throws TTransportException {
+        busy = true;
+
+        try {
+            drain(checkOpen());
+        } finally {
+            exit();
+        }
+    }
+
+    private void drain(SocketChannel current) throws TTransportException {
+        writeBuffer.flip();
+
+        try {
+            while (writeBuffer.hasRemaining()) {
+                if (current.write(writeBuffer) == 0) {
+                    await(SelectionKey.OP_WRITE, socketTimeout);
+                }
+            }
+        } catch (IOException e) {
+            throw new TTransportException(TTransportException.UNKNOWN, e);
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * May be called from another thread, for example by the watchdog, to abort a read or write that is waiting on the network.
+     */
+    @Override
+    public void close() {
+        SocketChannel current = channel;
+
+        channel = null;
+
+        if (!busy) {
+            releaseBuffers();
+        }
+
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.debug("unable to close channel: {}", e.getMessage());
+            }
+        }
+
+        if (selector != null) {
+            selector.wakeup();
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("unable to close selector: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void await(int operation, int timeout) throws IOException, TTransportException {
+        SocketChannel current = channel;
+
+        if (current == null) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "socket closed");
+        }
+
+        // a concurrent close cancels the key and closes the selector at any point in here
+        try {
+            SelectionKey key = current.register(selector, operation);
+
+            try {
+                if (selector.select(timeout) == 0) {
+                    if (channel == null) {
+                        throw new TTransportException(TTransportException.NOT_OPEN, "socket closed");
+                    }
+
+                    if (timeout > 0) {
+                        throw new TTransportException(TTransportException.TIMED_OUT, "socket timed out after [" + timeout + "] ms");
+                    }
+                }
+            } finally {
+                if (key.isValid()) {
+                    selector.selectedKeys().clear();
+                    key.interestOps(0);
+                }
+            }
+        } catch (ClosedSelectorException | CancelledKeyException e) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "socket closed", e);
+        }
+    }
+
+    private void exit() {
+        busy = false;
+
+        if (channel == null) {
+            releaseBuffers();
+        }
+    }
+
+    private void releaseBuffers() {
+        if (readBuffer != null && writeBuffer != null && released.compareAndSet(false, true)) {
+            returnBuffer(readBuffer);
+            returnBuffer(writeBuffer);
+        }
+    }
+
+    private int eof() throws TTransportException {
+        throw new TTransportException(TTransportException.END_OF_FILE, "socket closed by server");
+    }
+
+    private SocketChannel checkOpen() throws TTransportException {
+        SocketChannel current = channel;
+
+        if (current == null) {
+            throw new TTransportException(TTransportException.NOT_OPEN, "socket not open");
+        }
+
+        return current;
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+
+        while (buffer != null && buffer.capacity() != bufferSize) {
+            buffer = BUFFER_POOL.poll();
+        }
+
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        buffer.clear();
+
+        return buffer;
+    }
+
+    private static void returnBuffer(ByteBuffer buffer) {
+        if (buffer != null && BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    public static class NioSocketTransportBuilder implements Builder<NioSocketTransport> {
+
+        private String host;
+        private int port;
+        private int connectTimeout;
+        private int socketTimeout;
+        private int bufferSize = 65536;
+        private int receiveBufferSize;
+        private int sendBufferSize;
+        private boolean tcpNoDelay = true;
+        private boolean keepAlive;
+
+        private NioSocketTransportBuilder() {
+        }
+
+        public NioSocketTransportBuilder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public NioSocketTransportBuilder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public NioSocketTransportBuilder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public NioSocketTransportBuilder socketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public NioSocketTransportBuilder bufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public NioSocketTransportBuilder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public NioSocketTransportBuilder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public NioSocketTransportBuilder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public NioSocketTransportBuilder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public NioSocketTransport build() {
+            return new NioSocketTransport(host, port, connectTimeout, socketTimeout, bufferSize, receiveBufferSize, sendBufferSize, tcpNoDelay, keepAlive);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Borrows a transport from the pool for each call, so calls from different threads only wait on each other once every transport in the pool is busy.
+ * A transport that fails with a {@link TTransportException} is removed from the pool rather than handed to the next caller.
+ */
+public class PooledClient extends DelegatingClient {
+
+    private final ThriftTransportPool pool;
+
+    public PooledClient(ThriftTransportPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    protected <T> T invoke(String method, Call<T> call) throws TException {
+        ThriftTransport transport = pool.borrow();
+
+        try {
+            T resp = call.call(transport.getClient());
+            pool.release(transport);
+            return resp;
+        } catch (TTransportException e) {
+            pool.invalidate(transport);
+            throw e;
+        } catch (TException | RuntimeException e) {
+            pool.release(transport);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+/**
+ * Observes, and optionally retries, every Thrift call made on a transport.  Implementations are called on the calling thread for every RPC, including
+ * each {@code FetchResults} and status poll, so they should avoid allocating or blocking.
+ */
+public interface RpcInterceptor {
+
+    /**
+     * Called before the request is sent.
+     *
+     * @param method the Thrift method name, eg. {@code FetchResults}
+     */
+    default void before(String method) {
+    }
+
+    /**
+     * Called once the call returns or fails.
+     *
+     * @param method       the Thrift method name
+     * @param elapsedNanos time spent in the call, including waiting for the transport
+     * @param error        the failure or null if the call succeeded
+     */
+    default void after(String method, long elapsedNanos, Throwable error) {
+    }
+
+    /**
+     * Called after a failed call to decide if it should be sent again on the same transport.  Not called for transport failures, which leave the
+     * transport out of step with the server and are never retried.
+     *
+     * @param method  the Thrift method name
+     * @param error   the failure
+     * @param attempt the number of attempts made so far, starting at 1
+     * @return true to send the request again
+     */
+    default boolean shouldRetry(String method, Throwable error, int attempt) {
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the changes statements executed through the driver have made to an HS2 session, so the session can be returned to its original state without
+ * opening a new one.  Only the first change to a configuration key is recorded, along with the value the key had before it.  HiveQL has no way to
+ * remove a key, so a key that was undefined before it was set cannot be restored; {@link #getUndefinedSettings()} reports those.
+ */
+public class SessionState {
+
+    private final String originalDatabase;
+
+    // key -> value before the first SET; null if the key had no value
+    private final Map<String, String> originalSettings = new LinkedHashMap<>();
+    private final Set<String> resources = new LinkedHashSet<>();
+    private final Set<String> functions = new LinkedHashSet<>();
+    private final Set<String> macros = new LinkedHashSet<>();
+
+    SessionState(String originalDatabase) {
+        this.originalDatabase = originalDatabase;
+    }
+
+    public String getOriginalDatabase() {
+        return originalDatabase;
+    }
+
+    public synchronized boolean isSettingRecorded(String key) {
+        return originalSettings.containsKey(key);
+    }
+
+    /**
+     * @param key           the configuration key about to be changed
+     * @param originalValue its current value or null if it is undefined
+     */
+    public synchronized void recordSetting(String key, String originalValue) {
+        if (!originalSettings.containsKey(key)) {
+            originalSettings.put(key, originalValue);
+        }
+    }
+
+    /**
+     * @return the keys that were undefined before they were first set and which no reset statement can remove again
+     */
+    public synchronized List<String> getUndefinedSettings() {
+        List<String> keys = new ArrayList<>();
+
+        for (Map.Entry<String, String> setting : originalSettings.entrySet()) {
+            if (setting.getValue() == null) {
+                keys.add(setting.getKey());
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @param type  JAR, FILE or ARCHIVE; plural forms are accepted
+     * @param paths one or more space separated paths exactly as they appeared in the {@code ADD} statement
+     */
+    public synchronized void recordResource(String type, String paths) {
+        resources.add(type.toUpperCase() + ' ' + paths);
+    }
+
+    public synchronized void recordFunction(String name) {
+        functions.add(name);
+    }
+
+    public synchronized void recordMacro(String name) {
+        macros.add(name);
+    }
+
+    public synchronized boolean isModified(String currentDatabase) {
+        return !originalSettings.isEmpty() || !resources.isEmpty() || !functions.isEmpty() || !macros.isEmpty() || !isOriginalDatabase(currentDatabase);
+    }
+
+    /**
+     * Builds the statements that undo the recorded changes.  Functions and macros are dropped before the resources they may depend on are removed.
+     * Keys that were undefined are left out; see {@link #getUndefinedSettings()}.
+     *
+     * @param currentDatabase the database the session is currently using
+     * @return the statements in the order they should be executed
+     */
+    public synchronized List<String> getResetStatements(String currentDatabase) {
+        List<String> statements = new ArrayList<>();
+
+        for (String function : functions) {
+            statements.add("DROP TEMPORARY FUNCTION IF EXISTS " + function);
+        }
+
+        for (String macro : macros) {
+            statements.add("DROP TEMPORARY MACRO IF EXISTS " + macro);
+        }
+
+        for (String resource : resources) {
+            statements.add("DELETE " + resource);
+        }
+
+        for (Map.Entry<String, String> setting : originalSettings.entrySet()) {
+            if (setting.getValue() != null) {
+                statements.add("SET " + setting.getKey() + '=' + setting.getValue());
+            }
+        }
+
+        if (!isOriginalDatabase(currentDatabase)) {
+            statements.add("USE `" + originalDatabase + '`');
+        }
+
+        return statements;
+    }
+
+    public synchronized void clear() {
+        originalSettings.clear();
+        resources.clear();
+        functions.clear();
+        macros.clear();
+    }
+
+    private boolean isOriginalDatabase(String currentDatabase) {
+        return originalDatabase == null || originalDatabase.equalsIgnoreCase(currentDatabase);
+    }
+}
@@ -21,6 +21,7 @@ import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.Builder;
 import veil.hdp.hive.jdbc.bindings.TOperationHandle;
 import veil.hdp.hive.jdbc.bindings.TOperationType;
+import veil.hdp.hive.jdbc.data.ColumnBasedSet;
 import veil.hdp.hive.jdbc.metadata.Schema;
 import veil.hdp.hive.jdbc.utils.ThriftUtils;
 
@@ -30,17 +31,22 @@ public class ThriftOperation implements AutoCloseable {
 
     private static final Logger log = LogManager.getLogger(ThriftOperation.class);
 
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+
     // constructor
     private final ThriftSession session;
     private final boolean hasResultSet;
     private final int modifiedCount;
     private final String operationType;
+    private final long deadline;
     // atomic
     private final AtomicBoolean closed = new AtomicBoolean(true);
+    private final AtomicBoolean prefetched = new AtomicBoolean(false);
     private TOperationHandle operationHandle;
     private Schema schema;
+    private ColumnBasedSet prefetchedPage;
 
-    private ThriftOperation(ThriftSession thriftSession, TOperationHandle operationHandle, Schema schema, boolean hasResultSet, int modifiedCount, String operationType) {
+    private ThriftOperation(ThriftSession thriftSession, TOperationHandle operationHandle, Schema schema, boolean hasResultSet, int modifiedCount, String operationType, boolean prefetched, ColumnBasedSet prefetchedPage, long deadline) {
 
         this.session = thriftSession;
         this.operationHandle = operationHandle;
@@ -48,6 +54,10 @@ public class ThriftOperation implements AutoCloseable {
         this.hasResultSet = hasResultSet;
         this.modifiedCount = modifiedCount;
         this.operationType = operationType;
+        this.prefetchedPage = prefetchedPage;
+        this.deadline = deadline;
+
+        this.prefetched.set(prefetched);
 
         closed.set(false);
     }
@@ -60,6 +70,13 @@ public class ThriftOperation implements AutoCloseable {
         return session;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} by which the operation must complete, including fetching its results, or {@link #NO_DEADLINE}
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
     public TOperationHandle getOperationHandle() {
         return operationHandle;
     }
@@ -84,6 +101,30 @@ public class ThriftOperation implements AutoCloseable {
         return schema;
     }
 
+    /**
+     * Determines if the first page of results was fetched together with the result set metadata and has not yet been consumed.
+     *
+     * @return true if {@link #takePrefetchedPage()} should be used instead of a FetchResults call
+     */
+    public boolean hasPrefetchedPage() {
+        return prefetched.get();
+    }
+
+    /**
+     * Hands out the prefetched first page exactly once.  A null value means the server returned no rows.
+     *
+     * @return the prefetched page or null
+     */
+    public ColumnBasedSet takePrefetchedPage() {
+        if (prefetched.compareAndSet(true, false)) {
+            ColumnBasedSet page = prefetchedPage;
+            prefetchedPage = null;
+            return page;
+        }
+
+        return null;
+    }
+
     @Override
     public void close() {
         if (closed.compareAndSet(false, true)) {
@@ -97,6 +138,7 @@ public class ThriftOperation implements AutoCloseable {
             } finally {
                 operationHandle = null;
                 schema = null;
+                prefetchedPage = null;
             }
         }
     }
@@ -114,6 +156,10 @@ public class ThriftOperation implements AutoCloseable {
 
         private TOperationHandle operationHandle;
         private ThriftSession session;
+        private Schema schema;
+        private boolean prefetched;
+        private ColumnBasedSet prefetchedPage;
+        private long deadline = NO_DEADLINE;
 
 
         private ThriftOperationBuilder() {
@@ -130,6 +176,22 @@ public class ThriftOperation implements AutoCloseable {
             return this;
         }
 
+        public ThriftOperationBuilder schema(Schema schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        public ThriftOperationBuilder deadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public ThriftOperationBuilder prefetchedPage(ColumnBasedSet prefetchedPage) {
+            this.prefetched = true;
+            this.prefetchedPage = prefetchedPage;
+            return this;
+        }
+
 
         public ThriftOperation build() {
 
@@ -153,14 +215,12 @@ public class ThriftOperation implements AutoCloseable {
                 operation = operationType.name();
             }
 
-            Schema schema = null;
-
             // if operation is something like EXECUTE_STATEMENT and doesn't have a result set, then schema building can fail
-            if (hasResultSet) {
+            if (hasResultSet && schema == null) {
                 schema = Schema.builder().session(session).handle(operationHandle).build();
             }
 
-            return new ThriftOperation(session, operationHandle, schema, hasResultSet, modifiedCount, operation);
+            return new ThriftOperation(session, operationHandle, schema, hasResultSet, modifiedCount, operation, prefetched, prefetchedPage, deadline);
         }
 
     }
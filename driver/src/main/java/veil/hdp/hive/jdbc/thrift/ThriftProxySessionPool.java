@@ -0,0 +1,613 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.Builder;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.HiveTimeoutException;
+import veil.hdp.hive.jdbc.utils.DriverUtils;
+import veil.hdp.hive.jdbc.utils.ThriftUtils;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps open {@link ThriftSession}s for many proxy users ({@code hive.server2.proxy.user}) on top of one group of authenticated transports.  The
+ * transports are opened and authenticated once, as the data source's own user; every session is then opened over them with {@code OpenSession}, so a
+ * session for a user without an idle one costs a single round trip rather than a new connection and authentication handshake.  Idle sessions are kept
+ * per user, up to a cap, and once the pool is at its maximum size the least recently used idle session of any user is closed to make room.
+ */
+public class ThriftProxySessionPool implements ThriftSessionPoolMXBean, AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(ThriftProxySessionPool.class);
+
+    // sessions returned more recently than this are assumed to still be usable
+    private static final long VALIDATION_THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+    private static final long VALIDATION_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private static final long HOUSEKEEPING_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    // sessions without a proxy user run as the authenticated user
+    private static final String NO_PROXY_USER = "";
+
+    private final String name;
+    private final Properties properties;
+    private final int maxIdlePerUser;
+    private final int maxPoolSize;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final long connectionTimeout;
+
+    // per user; most recently used first, so that surplus sessions age out at the tail
+    private final ConcurrentMap<String, LinkedBlockingDeque<PooledSession>> idle = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final ScheduledThreadPoolExecutor housekeeper;
+    private ObjectName objectName;
+
+    // the authenticated transports new sessions are opened over; replaced if the transport they were duplicated from fails
+    private volatile ThriftTransportPool transports;
+    // sessions opened over each group of transports; a replaced group stays open until the last of its sessions is destroyed
+    private final Map<ThriftTransportPool, Integer> groupSessions = new HashMap<>();
+    private final ConcurrentMap<ThriftSession, ThriftTransportPool> sessionGroups = new ConcurrentHashMap<>();
+
+    // atomic
+    private final AtomicBoolean closed = new AtomicBoolean(true);
+
+    private ThriftProxySessionPool(String name, Properties properties, int maxIdlePerUser, int maxPoolSize, long idleTimeout, long maxLifetime, long connectionTimeout) {
+        this.name = name;
+        this.properties = properties;
+        this.maxIdlePerUser = maxIdlePerUser;
+        this.maxPoolSize = maxPoolSize;
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+        this.connectionTimeout = connectionTimeout;
+
+        this.housekeeper = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "hive-proxy-pool-housekeeper-thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        closed.set(false);
+    }
+
+    public static ThriftProxySessionPoolBuilder builder() {
+        return new ThriftProxySessionPoolBuilder();
+    }
+
+    /**
+     * Borrows a session running as the given proxy user, waiting up to the connection timeout if the pool is at its maximum size and no idle session
+     * can be closed to make room.
+     *
+     * @param proxyUser the user HS2 runs the session as; null for the proxy user of the pool's properties, if any
+     */
+    public ThriftSession borrow(String proxyUser) {
+
+        String user = proxyUser != null ? proxyUser : HiveDriverProperty.PROXY_USER.get(properties);
+        String key = user != null ? user : NO_PROXY_USER;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+
+        while (!closed.get()) {
+
+            LinkedBlockingDeque<PooledSession> sessions = idle.get(key);
+
+            PooledSession pooled = sessions != null ? sessions.pollFirst() : null;
+
+            if (pooled != null) {
+                if (isUsable(pooled)) {
+                    return pooled.session;
+                }
+
+                destroy(pooled);
+                continue;
+            }
+
+            if (reserve() || (evictLeastRecentlyUsed() && reserve())) {
+                return create(user).session;
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                throw new HiveTimeoutException("timed out after [" + connectionTimeout + "] ms waiting for a session from pool [" + name + ']');
+            }
+
+            waiting.incrementAndGet();
+
+            try {
+                // bounded so that capacity freed by another user's session is noticed
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HiveException(e);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        throw new HiveException("session pool [" + name + "] is closed");
+    }
+
+    /**
+     * Returns a session borrowed with {@link #borrow(String)}.  Sessions that are no longer valid, have outlived the maximum lifetime, no longer use
+     * the pool's transports or would exceed the idle cap of their user are closed.
+     */
+    public void release(ThriftSession session) {
+
+        PooledSession pooled = new PooledSession(session);
+
+        if (closed.get() || !session.isValid() || isExpired(pooled, System.nanoTime()) || !isPooledTransport(session)) {
+            destroy(pooled);
+            return;
+        }
+
+        // a key that was undefined cannot be unset again, so the session can never look fresh to the next borrower
+        if (!session.getState().getUndefinedSettings().isEmpty()) {
+            destroy(pooled);
+            return;
+        }
+
+        // undo whatever the borrower changed so the next borrower sees a fresh session
+        if (session.getState().isModified(session.getDatabase())) {
+            try {
+                session.reset();
+            } catch (RuntimeException e) {
+                log.debug("unable to reset pooled session: {}", e.getMessage());
+
+                destroy(pooled);
+                return;
+            }
+        }
+
+        String user = HiveDriverProperty.PROXY_USER.get(session.getProperties());
+
+        AtomicBoolean accepted = new AtomicBoolean();
+
+        // offered under the map's lock for the key so housekeeping cannot drop the deque in between
+        idle.compute(user != null ? user : NO_PROXY_USER, (key, sessions) -> {
+            if (sessions == null) {
+                sessions = new LinkedBlockingDeque<>();
+            }
+
+            if (sessions.size() < maxIdlePerUser) {
+                sessions.offerFirst(pooled);
+                accepted.set(true);
+            }
+
+            return sessions;
+        });
+
+        if (!accepted.get()) {
+            destroy(pooled);
+        }
+    }
+
+    private boolean isUsable(PooledSession pooled) {
+        long now = System.nanoTime();
+
+        if (isExpired(pooled, now) || !pooled.session.isValid() || !isPooledTransport(pooled.session)) {
+            return false;
+        }
+
+        if (now - pooled.lastUsed < VALIDATION_THRESHOLD) {
+            return true;
+        }
+
+        if (ThriftUtils.ping(pooled.session, WatchdogUtils.deadline(VALIDATION_TIMEOUT, TimeUnit.MILLISECONDS))) {
+            return true;
+        }
+
+        log.debug("pooled session failed validation");
+
+        return false;
+    }
+
+    private boolean isExpired(PooledSession pooled, long now) {
+        return maxLifetime > 0 && now - pooled.session.getCreated() >= TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    // a session that reconnected owns its transports now and one opened before the transports were replaced holds the old ones, which close once the
+    // last such session is destroyed
+    private boolean isPooledTransport(ThriftSession session) {
+        return session.isSharedTransports() && session.getTransportPool() == transports;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = total.get();
+
+            if (current >= maxPoolSize) {
+                return false;
+            }
+
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Closes the idle session, of any user, that was returned the longest time ago.
+     *
+     * @return true if a session was closed
+     */
+    private boolean evictLeastRecentlyUsed() {
+        PooledSession oldest = null;
+        LinkedBlockingDeque<PooledSession> owner = null;
+
+        for (LinkedBlockingDeque<PooledSession> sessions : idle.values()) {
+            PooledSession last = sessions.peekLast();
+
+            if (last != null && (oldest == null || last.lastUsed < oldest.lastUsed)) {
+                oldest = last;
+                owner = sessions;
+            }
+        }
+
+        if (oldest != null && owner.remove(oldest)) {
+            destroy(oldest);
+            return true;
+        }
+
+        return false;
+    }
+
+    private PooledSession create(String user) {
+        try {
+            Properties sessionProperties = new Properties();
+            sessionProperties.putAll(properties);
+
+            if (user != null) {
+                HiveDriverProperty.PROXY_USER.set(sessionProperties, user);
+            }
+
+            ThriftTransportPool group = joinTransports();
+
+            ThriftSession session;
+
+            try {
+                session = ThriftSession.builder().properties(sessionProperties).transportPool(group).build();
+            } catch (RuntimeException e) {
+                leaveTransports(group);
+                throw e;
+            }
+
+            sessionGroups.put(session, group);
+
+            created.incrementAndGet();
+
+            return new PooledSession(session);
+        } catch (RuntimeException e) {
+            total.decrementAndGet();
+            failures.incrementAndGet();
+
+            throw e;
+        }
+    }
+
+    private synchronized ThriftTransportPool joinTransports() {
+        ThriftTransportPool group = getTransports();
+
+        groupSessions.merge(group, 1, Integer::sum);
+
+        return group;
+    }
+
+    private synchronized void leaveTransports(ThriftTransportPool group) {
+        Integer remaining = groupSessions.computeIfPresent(group, (key, count) -> count > 1 ? count - 1 : null);
+
+        if (remaining == null && group != transports) {
+            log.debug("last session of replaced transports of pool [{}] is gone; closing them", name);
+
+            group.close();
+        }
+    }
+
+    private synchronized ThriftTransportPool getTransports() {
+        if (closed.get()) {
+            throw new HiveException("session pool [" + name + "] is closed");
+        }
+
+        if (transports == null || transports.isClosed() || !transports.getPrimary().isValid()) {
+
+            ThriftTransportPool replaced = transports;
+
+            if (replaced != null) {
+                log.debug("transports of pool [{}] failed; opening new ones", name);
+
+                // sessions still using them keep borrowing their remaining transports and are destroyed when released
+                if (!groupSessions.containsKey(replaced)) {
+                    replaced.close();
+                }
+            }
+
+            // sessions share the group's host, so the host is chosen when the group is opened
+            Properties selected = DriverUtils.selectHost(properties, null);
+
+            ThriftTransport primary = ThriftTransport.builder().properties(selected).build();
+
+            transports = ThriftTransportPool.builder().properties(selected).primary(primary).build();
+        }
+
+        return transports;
+    }
+
+    private void destroy(PooledSession pooled) {
+        destroyed.incrementAndGet();
+
+        try {
+            pooled.session.close();
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+
+        ThriftTransportPool group = sessionGroups.remove(pooled.session);
+
+        if (group != null) {
+            leaveTransports(group);
+        }
+
+        // the transports outlive the pool until the last session is gone
+        if (total.decrementAndGet() == 0 && closed.get()) {
+            closeTransports();
+        }
+    }
+
+    private synchronized void closeTransports() {
+        if (transports != null) {
+            transports.close();
+            transports = null;
+        }
+    }
+
+    private void housekeeping() {
+        try {
+            evictIdleSessions();
+        } catch (RuntimeException e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void evictIdleSessions() {
+        long now = System.nanoTime();
+
+        for (Map.Entry<String, LinkedBlockingDeque<PooledSession>> entry : idle.entrySet()) {
+
+            // oldest at the tail
+            for (Iterator<PooledSession> iterator = entry.getValue().descendingIterator(); iterator.hasNext(); ) {
+                PooledSession pooled = iterator.next();
+
+                boolean idleTooLong = idleTimeout > 0 && now - pooled.lastUsed >= TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+
+                if ((idleTooLong || isExpired(pooled, now)) && entry.getValue().remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            // forget users without idle sessions
+            idle.computeIfPresent(entry.getKey(), (key, sessions) -> sessions.isEmpty() ? null : sessions);
+        }
+    }
+
+    private void start() {
+        long interval = idleTimeout > 0 ? Math.min(HOUSEKEEPING_INTERVAL, idleTimeout) : HOUSEKEEPING_INTERVAL;
+
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, interval, interval, TimeUnit.MILLISECONDS);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            objectName = new ObjectName("veil.hdp.hive.jdbc:type=ProxySessionPool,name=" + ObjectName.quote(name));
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("unable to register pool [" + name + "] with jmx: " + e.getMessage(), e);
+
+            objectName = null;
+        }
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return Math.max(0, total.get() - getIdleSessions());
+    }
+
+    @Override
+    public int getIdleSessions() {
+        int count = 0;
+
+        for (LinkedBlockingDeque<PooledSession> sessions : idle.values()) {
+            count += sessions.size();
+        }
+
+        return count;
+    }
+
+    @Override
+    public int getTotalSessions() {
+        return total.get();
+    }
+
+    @Override
+    public int getThreadsAwaitingSession() {
+        return waiting.get();
+    }
+
+    @Override
+    public long getSessionsCreated() {
+        return created.get();
+    }
+
+    @Override
+    public long getSessionsDestroyed() {
+        return destroyed.get();
+    }
+
+    @Override
+    public long getSessionCreationFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return always 0; sessions are opened on demand for whichever user asks
+     */
+    @Override
+    public int getMinIdle() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public int getMaxIdlePerUser() {
+        return maxIdlePerUser;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes every idle session.  Sessions currently in use are closed as they are released, and the transports once the last of them is.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+
+            log.trace("attempting to close {}", this.getClass().getName());
+
+            housekeeper.shutdownNow();
+
+            for (LinkedBlockingDeque<PooledSession> sessions : idle.values()) {
+                PooledSession pooled;
+
+                while ((pooled = sessions.pollFirst()) != null) {
+                    destroy(pooled);
+                }
+            }
+
+            if (total.get() == 0) {
+                closeTransports();
+            }
+
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    log.debug(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static class PooledSession {
+        private final ThriftSession session;
+        private final long lastUsed;
+
+        PooledSession(ThriftSession session) {
+            this.session = session;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    public static class ThriftProxySessionPoolBuilder implements Builder<ThriftProxySessionPool> {
+
+        private String name;
+        private Properties properties;
+        private int maxIdlePerUser = 2;
+        private int maxPoolSize = 10;
+        private long idleTimeout = TimeUnit.MINUTES.toMillis(10);
+        private long maxLifetime = TimeUnit.MINUTES.toMillis(30);
+        private long connectionTimeout = TimeUnit.SECONDS.toMillis(30);
+
+        private ThriftProxySessionPoolBuilder() {
+        }
+
+        public ThriftProxySessionPoolBuilder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder maxIdlePerUser(int maxIdlePerUser) {
+            this.maxIdlePerUser = maxIdlePerUser;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder maxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder idleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder maxLifetime(long maxLifetime) {
+            this.maxLifetime = maxLifetime;
+            return this;
+        }
+
+        public ThriftProxySessionPoolBuilder connectionTimeout(long connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public ThriftProxySessionPool build() {
+            int max = Math.max(1, maxPoolSize);
+
+            ThriftProxySessionPool pool = new ThriftProxySessionPool(name, properties, Math.max(0, Math.min(maxIdlePerUser, max)), max, idleTimeout, maxLifetime, connectionTimeout);
+
+            pool.start();
+
+            return pool;
+        }
+    }
+}
@@ -25,14 +25,27 @@ import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.Builder;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.HiveTimeoutException;
+import veil.hdp.hive.jdbc.balancer.HostHealthTracker;
+import veil.hdp.hive.jdbc.balancer.HostStats;
 import veil.hdp.hive.jdbc.bindings.*;
 import veil.hdp.hive.jdbc.metadata.ColumnTypeDescriptor;
+import veil.hdp.hive.jdbc.security.KerberosService;
+import veil.hdp.hive.jdbc.utils.DelegationTokenUtils;
+import veil.hdp.hive.jdbc.utils.DriverUtils;
+import veil.hdp.hive.jdbc.utils.HiveExceptionUtils;
+import veil.hdp.hive.jdbc.utils.KeepAliveUtils;
+import veil.hdp.hive.jdbc.utils.ProtocolVersionUtils;
 import veil.hdp.hive.jdbc.utils.ThriftUtils;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
 import veil.hdp.hive.jdbc.utils.TypeDescriptorUtils;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ThriftSession implements AutoCloseable {
@@ -44,19 +57,30 @@ public class ThriftSession implements AutoCloseable {
     private final LoadingCache<TTypeDesc, ColumnTypeDescriptor> cache = CacheBuilder.newBuilder()
             .maximumSize(500)
             .build(new ColumnTypeCacheLoader());
-    // constructor
-    private ThriftTransport thriftTransport;
-    private TCLIService.Iface client;
-    private TSessionHandle sessionHandle;
-    private TProtocolVersion protocol;
-
-
-    private ThriftSession(Properties properties, ThriftTransport thriftTransport, TCLIService.Iface client, TSessionHandle sessionHandle, TProtocolVersion protocol) {
+    // constructor; replaced together when the session is reestablished
+    private volatile ThriftTransport thriftTransport;
+    private volatile ThriftTransportPool transportPool;
+    private volatile TCLIService.Iface client;
+    private volatile TSessionHandle sessionHandle;
+    private volatile TProtocolVersion protocol;
+    // true while the transports belong to a pool of transports shared with other sessions rather than to this session
+    private volatile boolean sharedTransports;
+    // the database the session is using, restored when the session is reestablished
+    private volatile String database;
+    private final SessionState state;
+    private final long created = System.nanoTime();
+    private volatile ScheduledFuture<?> keepAlive;
+
+
+    private ThriftSession(Properties properties, ThriftTransportPool transportPool, TSessionHandle sessionHandle, TProtocolVersion protocol) {
         this.properties = properties;
-        this.thriftTransport = thriftTransport;
-        this.client = client;
+        this.transportPool = transportPool;
+        this.thriftTransport = transportPool.getPrimary();
+        this.client = ThriftUtils.createPooledClient(transportPool);
         this.sessionHandle = sessionHandle;
         this.protocol = protocol;
+        this.database = HiveDriverProperty.DATABASE_NAME.get(properties);
+        this.state = new SessionState(database);
 
         closed.set(false);
     }
@@ -79,6 +103,24 @@ public class ThriftSession implements AutoCloseable {
         return client;
     }
 
+    /**
+     * @return the transport the session was opened on
+     */
+    public ThriftTransport getThriftTransport() {
+        return thriftTransport;
+    }
+
+    public ThriftTransportPool getTransportPool() {
+        return transportPool;
+    }
+
+    /**
+     * @return true if the session was opened over transports it shares with other sessions and which are not closed with it
+     */
+    public boolean isSharedTransports() {
+        return sharedTransports;
+    }
+
     public TSessionHandle getSessionHandle() {
         return sessionHandle;
     }
@@ -95,6 +137,127 @@ public class ThriftSession implements AutoCloseable {
         return protocol;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} at which the session was opened
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public void setDatabase(String database) {
+        this.database = database;
+    }
+
+    public SessionState getState() {
+        return state;
+    }
+
+    /**
+     * Undoes the changes recorded in the session's {@link SessionState}, running only the statements needed to restore the original database,
+     * configuration, resources and temporary functions.
+     *
+     * @throws HiveException once everything else has been restored, if keys that were undefined before they were first set are still defined; such a
+     *                       session cannot be fully restored and should not be reused
+     */
+    public synchronized void reset() {
+        List<String> statements = state.getResetStatements(database);
+        List<String> undefined = state.getUndefinedSettings();
+
+        for (String statement : statements) {
+            ThriftUtils.executeUpdate(this, statement);
+        }
+
+        state.clear();
+        database = state.getOriginalDatabase();
+
+        if (!undefined.isEmpty()) {
+            throw new HiveException("unable to unset " + undefined + "; they were undefined before the session set them");
+        }
+    }
+
+    /**
+     * Replaces a session whose transport failed.  A new session is opened, and authenticated, as the builder would for a new connection, with the
+     * original configuration and the current database.  Operations started on the failed session are lost.
+     *
+     * @param failedHandle the session handle in use when the failure was observed; if the session has already been reestablished by another thread since,
+     *                     nothing is done
+     */
+    public synchronized void reconnect(TSessionHandle failedHandle) {
+
+        if (closed.get()) {
+            throw new HiveException("cannot reconnect; session is closed");
+        }
+
+        if (failedHandle != sessionHandle) {
+            return;
+        }
+
+        log.warn("transport failure detected; reestablishing session");
+
+        Properties failedProperties = thriftTransport.getProperties();
+        HostStats failedHost = HostStats.forHost(HiveDriverProperty.HOST_NAME.get(failedProperties), HiveDriverProperty.PORT_NUMBER.getInt(failedProperties));
+
+        Properties reconnectProperties = new Properties();
+        reconnectProperties.putAll(properties);
+
+        if (database != null) {
+            HiveDriverProperty.DATABASE_NAME.set(reconnectProperties, database);
+        }
+
+        ThriftSession replacement;
+
+        try {
+            // a delegation token that expired since the session opened is replaced by kerberos here, as for any new session
+            replacement = ThriftSession.builder().properties(reconnectProperties).selectHost(failedHost).build();
+        } catch (RuntimeException e) {
+            throw new HiveException("unable to reestablish session", e);
+        }
+
+        // this session keeps its own keep alive; the replacement only lends its transports and handle
+        if (replacement.keepAlive != null) {
+            replacement.keepAlive.cancel(false);
+        }
+
+        replacement.closed.set(true);
+
+        ThriftTransportPool oldPool = transportPool;
+
+        transportPool = replacement.transportPool;
+        thriftTransport = replacement.thriftTransport;
+        client = replacement.client;
+        protocol = replacement.protocol;
+        sessionHandle = replacement.sessionHandle;
+
+        // settings, resources and functions did not survive the failed session
+        state.clear();
+
+        Properties replacementProperties = thriftTransport.getProperties();
+        HostStats replacementHost = HostStats.forHost(HiveDriverProperty.HOST_NAME.get(replacementProperties), HiveDriverProperty.PORT_NUMBER.getInt(replacementProperties));
+
+        /*
+            if HS2 only lost the connection, rather than restarting, the old session is still open on the server.  only that server knows the handle, so
+            it is closed only when the replacement landed on the same host; a session left on another host is closed by its idle session timeout
+         */
+        if (replacementHost == failedHost) {
+            try {
+                client.CloseSession(new TCloseSessionReq(failedHandle));
+            } catch (Exception e) {
+                log.debug("unable to close previous session: {}", e.getMessage());
+            }
+        }
+
+        // a shared pool stays with the sessions still using it
+        if (!sharedTransports) {
+            oldPool.close();
+        }
+
+        sharedTransports = false;
+    }
+
     /**
      * Determines if the ThriftSession is in a valid state to execute another Thrift call. It checks both the closed flag as well as the underlying thrift transport status.
      *
@@ -110,17 +273,22 @@ public class ThriftSession implements AutoCloseable {
 
             log.trace("attempting to close {}", this.getClass().getName());
 
+            if (keepAlive != null) {
+                keepAlive.cancel(false);
+            }
+
             try {
                 ThriftUtils.closeSession(this);
 
-                if (!thriftTransport.isClosed()) {
-                    thriftTransport.close();
+                if (!sharedTransports) {
+                    transportPool.close();
                 }
             } catch (Exception e) {
                 log.warn(e.getMessage(), e);
             } finally {
                 sessionHandle = null;
                 thriftTransport = null;
+                transportPool = null;
                 client = null;
                 protocol = null;
 
@@ -129,8 +297,34 @@ public class ThriftSession implements AutoCloseable {
         }
     }
 
+    /*
+        the transport timeout also bounds OpenSession; a server that accepts the connection but never answers would otherwise
+        hang the caller forever.  closing the transport unblocks the pending read.
+     */
+    private static TOpenSessionResp openSession(Properties properties, ThriftTransport thriftTransport, TProtocolVersion protocolVersion) throws InvalidProtocolException {
+
+        int timeout = HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties);
+
+        WatchdogUtils.Watch watch = timeout > 0 ? WatchdogUtils.watch(WatchdogUtils.deadline(timeout, TimeUnit.MILLISECONDS), thriftTransport::close) : WatchdogUtils.Watch.NONE;
+
+        try {
+            return ThriftUtils.openSession(properties, thriftTransport.getClient(), protocolVersion);
+        } catch (RuntimeException e) {
+            if (watch.isExpired()) {
+                throw new HiveTimeoutException("The Thrift Session did not open prior to Timeout.", e);
+            }
+
+            throw e;
+        } finally {
+            watch.close();
+        }
+    }
+
     public static class ThriftSessionBuilder implements Builder<ThriftSession> {
         private Properties properties;
+        private ThriftTransportPool transportPool;
+        private boolean selectHost;
+        private HostStats excludedHost;
 
         private ThriftSessionBuilder() {
         }
@@ -140,13 +334,101 @@ public class ThriftSession implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Opens the session over transports that are already open and authenticated instead of opening new ones, so the session costs a single
+         * {@code OpenSession} call.  The pool is not closed with the session.
+         */
+        public ThriftSessionBuilder transportPool(ThriftTransportPool transportPool) {
+            this.transportPool = transportPool;
+            return this;
+        }
+
+
+        /**
+         * Chooses the host again, by the url's host selection policy, rather than using the host already named in the properties.  Ignored
+         * when the session opens over a {@link #transportPool(ThriftTransportPool)}.
+         *
+         * @param excluded a host to avoid, or null
+         */
+        public ThriftSessionBuilder selectHost(HostStats excluded) {
+            this.selectHost = true;
+            this.excludedHost = excluded;
+            return this;
+        }
+
 
         @Override
         public ThriftSession build() {
+            if (transportPool != null) {
+                return openShared();
+            }
+
+            if (selectHost) {
+                properties = DriverUtils.selectHost(properties, excludedHost);
+            }
+
+            HostStats host = HostStats.forHost(HiveDriverProperty.HOST_NAME.get(properties), HiveDriverProperty.PORT_NUMBER.getInt(properties));
+
+            long start = System.nanoTime();
+
+            ThriftSession session;
+
+            try {
+                session = authenticate();
+            } catch (RuntimeException e) {
+                HostHealthTracker.connectFailed(properties, host, e);
+                throw e;
+            }
+
+            HostHealthTracker.connectSucceeded(properties, host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            return session;
+        }
+
+        private ThriftSession authenticate() {
+            Properties tokenProperties = DelegationTokenUtils.withCachedToken(properties);
+
+            if (tokenProperties != null) {
+                try {
+                    return open(tokenProperties);
+                } catch (RuntimeException e) {
+                    // an unreachable host fails kerberos just the same and says nothing about the token
+                    if (!HiveExceptionUtils.isAuthenticationFailure(e)) {
+                        throw e;
+                    }
+
+                    // most likely expired or cancelled; kerberos still works and obtains a new token below
+                    log.debug("cached delegation token rejected; falling back to kerberos", e);
+
+                    DelegationTokenUtils.invalidate(properties);
+                }
+            }
+
+            ThriftSession session;
+
+            try {
+                session = open(properties);
+            } catch (RuntimeException e) {
+                // a cached login the server no longer accepts would otherwise fail every connection until its ticket expires
+                if (HiveExceptionUtils.isAuthenticationFailure(e)) {
+                    KerberosService.invalidateSubject(properties);
+                }
+
+                throw e;
+            }
+
+            DelegationTokenUtils.obtain(properties, session);
+
+            return session;
+        }
+
+        private ThriftSession open(Properties properties) {
 
             ThriftTransport thriftTransport = null;
 
-            int protocol = HiveDriverProperty.THRIFT_PROTOCOL_VERSION.getInt(properties);
+            int protocol = ProtocolVersionUtils.getInitialVersion(properties);
+
+            boolean cached = protocol != HiveDriverProperty.THRIFT_PROTOCOL_VERSION.getInt(properties);
 
             while (protocol >= TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V8.getValue()) {
 
@@ -154,13 +436,27 @@ public class ThriftSession implements AutoCloseable {
 
                 log.debug("trying protocol {}", protocolVersion);
 
+                thriftTransport = null;
+
                 try {
 
                     thriftTransport = ThriftTransport.builder().properties(properties).build();
 
-                    TCLIService.Iface client = ThriftUtils.createClient(thriftTransport);
+                    TOpenSessionResp openSessionResp;
 
-                    TOpenSessionResp openSessionResp = ThriftUtils.openSession(properties, client, protocolVersion);
+                    try {
+                        openSessionResp = openSession(properties, thriftTransport, protocolVersion);
+                    } catch (InvalidProtocolException | RuntimeException e) {
+                        if (cached) {
+                            // the server may have been replaced; start from the configured version next time
+                            ProtocolVersionUtils.invalidate(properties);
+                            cached = false;
+                        }
+
+                        throw e;
+                    }
+
+                    ProtocolVersionUtils.put(properties, protocolVersion);
 
                     TSessionHandle sessionHandle = openSessionResp.getSessionHandle();
 
@@ -168,7 +464,18 @@ public class ThriftSession implements AutoCloseable {
 
                     log.debug("opened session with protocol {}", serverProtocolVersion);
 
-                    return new ThriftSession(properties, thriftTransport, client, sessionHandle, serverProtocolVersion);
+                    ThriftTransportPool transportPool = ThriftTransportPool.builder().properties(properties).primary(thriftTransport).build();
+
+                    // the session keeps the caller's properties rather than any cached token, so a reconnect picks its credentials afresh
+                    ThriftSession session = new ThriftSession(ThriftSessionBuilder.this.properties, transportPool, sessionHandle, serverProtocolVersion);
+
+                    int keepAliveInterval = HiveDriverProperty.KEEP_ALIVE_INTERVAL.getInt(properties);
+
+                    if (keepAliveInterval > 0) {
+                        session.keepAlive = KeepAliveUtils.schedule(session, keepAliveInterval);
+                    }
+
+                    return session;
 
                 } catch (InvalidProtocolException e) {
                     protocol--;
@@ -178,7 +485,63 @@ public class ThriftSession implements AutoCloseable {
                     } catch (Exception io) {
                         log.warn(io.getMessage(), io);
                     }
+                } catch (RuntimeException e) {
+                    // the socket, and in http mode the client or its shared lease, would otherwise outlive the failed attempt
+                    if (thriftTransport != null) {
+                        try {
+                            thriftTransport.close();
+                        } catch (Exception io) {
+                            log.warn(io.getMessage(), io);
+                        }
+                    }
+
+                    throw e;
+                }
+            }
+
+            throw new HiveException("cannot build ThriftSession.  check that the thrift protocol version on the server is compatible with this driver.");
+        }
+
+        private ThriftSession openShared() {
+
+            int protocol = ProtocolVersionUtils.getInitialVersion(properties);
+
+            while (protocol >= TProtocolVersion.HIVE_CLI_SERVICE_PROTOCOL_V8.getValue()) {
+
+                TProtocolVersion protocolVersion = TProtocolVersion.findByValue(protocol);
+
+                ThriftTransport thriftTransport = transportPool.borrow();
+
+                TOpenSessionResp openSessionResp;
+
+                try {
+                    openSessionResp = openSession(properties, thriftTransport, protocolVersion);
+                } catch (InvalidProtocolException e) {
+                    transportPool.release(thriftTransport);
+
+                    protocol--;
+                    continue;
+                } catch (RuntimeException e) {
+                    transportPool.invalidate(thriftTransport);
+
+                    throw e;
                 }
+
+                transportPool.release(thriftTransport);
+
+                ProtocolVersionUtils.put(properties, protocolVersion);
+
+                ThriftSession session = new ThriftSession(properties, transportPool, openSessionResp.getSessionHandle(), openSessionResp.getServerProtocolVersion());
+
+                session.sharedTransports = true;
+
+                int keepAliveInterval = HiveDriverProperty.KEEP_ALIVE_INTERVAL.getInt(properties);
+
+                if (keepAliveInterval > 0) {
+                    session.keepAlive = KeepAliveUtils.schedule(session, keepAliveInterval);
+                }
+
+                return session;
             }
 
             throw new HiveException("cannot build ThriftSession.  check that the thrift protocol version on the server is compatible with this driver.");
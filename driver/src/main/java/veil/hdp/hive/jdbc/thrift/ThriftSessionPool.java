@@ -0,0 +1,477 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.Builder;
+import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.HiveTimeoutException;
+import veil.hdp.hive.jdbc.utils.ThriftUtils;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps open {@link ThriftSession}s for reuse so that a connection does not pay for a new transport, authentication handshake and {@code OpenSession}
+ * every time.  Idle sessions are validated with a {@code GetInfo} call before reuse, closed once idle for longer than the idle timeout or older than the
+ * maximum lifetime, and replenished in the background to keep at least the minimum idle count ready.
+ */
+public class ThriftSessionPool implements ThriftSessionPoolMXBean, AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(ThriftSessionPool.class);
+
+    // sessions returned more recently than this are assumed to still be usable
+    private static final long VALIDATION_THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+    private static final long VALIDATION_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private static final long HOUSEKEEPING_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int MAX_FILL_THREADS = 4;
+
+    private final String name;
+    private final Properties properties;
+    private final int minIdle;
+    private final int maxPoolSize;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final long connectionTimeout;
+
+    // most recently used first, so that surplus sessions age out at the tail
+    private final LinkedBlockingDeque<PooledSession> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    // sessions being opened in the background that will join the idle queue
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final ScheduledThreadPoolExecutor housekeeper;
+    private ObjectName objectName;
+
+    // atomic
+    private final AtomicBoolean closed = new AtomicBoolean(true);
+
+    private ThriftSessionPool(String name, Properties properties, int minIdle, int maxPoolSize, long idleTimeout, long maxLifetime, long connectionTimeout) {
+        this.name = name;
+        this.properties = properties;
+        this.minIdle = minIdle;
+        this.maxPoolSize = maxPoolSize;
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+        this.connectionTimeout = connectionTimeout;
+
+        this.housekeeper = new ScheduledThreadPoolExecutor(Math.max(1, Math.min(minIdle, MAX_FILL_THREADS)), r -> {
+            Thread thread = new Thread(r, "hive-pool-housekeeper-thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        closed.set(false);
+    }
+
+    public static ThriftSessionPoolBuilder builder() {
+        return new ThriftSessionPoolBuilder();
+    }
+
+    /**
+     * Borrows a session, waiting up to the connection timeout for one to be returned if the pool is at its maximum size.
+     */
+    public ThriftSession borrow() {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+
+        while (!closed.get()) {
+
+            PooledSession pooled = idle.pollFirst();
+
+            if (pooled != null) {
+                if (isUsable(pooled)) {
+                    return pooled.session;
+                }
+
+                destroy(pooled);
+                continue;
+            }
+
+            if (reserve()) {
+                return create().session;
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                throw new HiveTimeoutException("timed out after [" + connectionTimeout + "] ms waiting for a session from pool [" + name + ']');
+            }
+
+            waiting.incrementAndGet();
+
+            try {
+                // bounded so that capacity freed by a destroyed session is noticed
+                pooled = idle.pollFirst(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HiveException(e);
+            } finally {
+                waiting.decrementAndGet();
+            }
+
+            if (pooled != null) {
+                if (isUsable(pooled)) {
+                    return pooled.session;
+                }
+
+                destroy(pooled);
+            }
+        }
+
+        throw new HiveException("session pool [" + name + "] is closed");
+    }
+
+    /**
+     * Returns a session borrowed with {@link #borrow()}.  Sessions that are no longer valid or have outlived the maximum lifetime are closed.
+     */
+    public void release(ThriftSession session) {
+
+        PooledSession pooled = new PooledSession(session);
+
+        if (closed.get() || !session.isValid() || isExpired(pooled, System.nanoTime())) {
+            destroy(pooled);
+            return;
+        }
+
+        // a key that was undefined cannot be unset again, so the session can never look fresh to the next borrower
+        if (!session.getState().getUndefinedSettings().isEmpty()) {
+            destroy(pooled);
+            return;
+        }
+
+        // undo whatever the borrower changed so the next borrower sees a fresh session
+        if (session.getState().isModified(session.getDatabase())) {
+            try {
+                session.reset();
+            } catch (RuntimeException e) {
+                log.debug("unable to reset pooled session: {}", e.getMessage());
+
+                destroy(pooled);
+                return;
+            }
+        }
+
+        idle.offerFirst(pooled);
+    }
+
+    private boolean isUsable(PooledSession pooled) {
+        long now = System.nanoTime();
+
+        if (isExpired(pooled, now) || !pooled.session.isValid()) {
+            return false;
+        }
+
+        if (now - pooled.lastUsed < VALIDATION_THRESHOLD) {
+            return true;
+        }
+
+        if (ThriftUtils.ping(pooled.session, WatchdogUtils.deadline(VALIDATION_TIMEOUT, TimeUnit.MILLISECONDS))) {
+            return true;
+        }
+
+        log.debug("pooled session failed validation");
+
+        return false;
+    }
+
+    private boolean isExpired(PooledSession pooled, long now) {
+        return maxLifetime > 0 && now - pooled.session.getCreated() >= TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = total.get();
+
+            if (current >= maxPoolSize) {
+                return false;
+            }
+
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private PooledSession create() {
+        try {
+            ThriftSession session = ThriftSession.builder().properties(properties).selectHost(null).build();
+
+            created.incrementAndGet();
+
+            return new PooledSession(session);
+        } catch (RuntimeException e) {
+            total.decrementAndGet();
+            failures.incrementAndGet();
+
+            throw e;
+        }
+    }
+
+    private void destroy(PooledSession pooled) {
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+
+        try {
+            pooled.session.close();
+        } catch (Exception e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens sessions in parallel until the minimum idle count is reached.
+     */
+    private void fill() {
+        int needed = minIdle - idle.size() - pending.get();
+
+        for (int i = 0; i < needed && !closed.get(); i++) {
+
+            if (!reserve()) {
+                return;
+            }
+
+            pending.incrementAndGet();
+
+            housekeeper.execute(() -> {
+                try {
+                    PooledSession pooled = create();
+
+                    if (closed.get()) {
+                        destroy(pooled);
+                    } else {
+                        idle.offerLast(pooled);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("unable to open session for pool [" + name + "]: " + e.getMessage(), e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void housekeeping() {
+        try {
+            evictIdleSessions();
+            fill();
+        } catch (RuntimeException e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void evictIdleSessions() {
+        long now = System.nanoTime();
+
+        // oldest at the tail
+        for (Iterator<PooledSession> iterator = idle.descendingIterator(); iterator.hasNext(); ) {
+            PooledSession pooled = iterator.next();
+
+            boolean idleTooLong = idleTimeout > 0 && now - pooled.lastUsed >= TimeUnit.MILLISECONDS.toNanos(idleTimeout) && idle.size() > minIdle;
+
+            if ((idleTooLong || isExpired(pooled, now)) && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+    }
+
+    private void start() {
+        long interval = idleTimeout > 0 ? Math.min(HOUSEKEEPING_INTERVAL, idleTimeout) : HOUSEKEEPING_INTERVAL;
+
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, interval, interval, TimeUnit.MILLISECONDS);
+
+        fill();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            objectName = new ObjectName("veil.hdp.hive.jdbc:type=SessionPool,name=" + ObjectName.quote(name));
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("unable to register pool [" + name + "] with jmx: " + e.getMessage(), e);
+
+            objectName = null;
+        }
+    }
+
+    @Override
+    public int getActiveSessions() {
+        return Math.max(0, total.get() - idle.size());
+    }
+
+    @Override
+    public int getIdleSessions() {
+        return idle.size();
+    }
+
+    @Override
+    public int getTotalSessions() {
+        return total.get();
+    }
+
+    @Override
+    public int getThreadsAwaitingSession() {
+        return waiting.get();
+    }
+
+    @Override
+    public long getSessionsCreated() {
+        return created.get();
+    }
+
+    @Override
+    public long getSessionsDestroyed() {
+        return destroyed.get();
+    }
+
+    @Override
+    public long getSessionCreationFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes every idle session.  Sessions currently in use are closed as they are released.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+
+            log.trace("attempting to close {}", this.getClass().getName());
+
+            housekeeper.shutdownNow();
+
+            PooledSession pooled;
+
+            while ((pooled = idle.pollFirst()) != null) {
+                destroy(pooled);
+            }
+
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    log.debug(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static class PooledSession {
+        private final ThriftSession session;
+        private final long lastUsed;
+
+        PooledSession(ThriftSession session) {
+            this.session = session;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    public static class ThriftSessionPoolBuilder implements Builder<ThriftSessionPool> {
+
+        private String name;
+        private Properties properties;
+        private int minIdle;
+        private int maxPoolSize = 10;
+        private long idleTimeout = TimeUnit.MINUTES.toMillis(10);
+        private long maxLifetime = TimeUnit.MINUTES.toMillis(30);
+        private long connectionTimeout = TimeUnit.SECONDS.toMillis(30);
+
+        private ThriftSessionPoolBuilder() {
+        }
+
+        public ThriftSessionPoolBuilder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder minIdle(int minIdle) {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder maxPoolSize(int maxPoolSize) {
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder idleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder maxLifetime(long maxLifetime) {
+            this.maxLifetime = maxLifetime;
+            return this;
+        }
+
+        public ThriftSessionPoolBuilder connectionTimeout(long connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public ThriftSessionPool build() {
+            int max = Math.max(1, maxPoolSize);
+
+            ThriftSessionPool pool = new ThriftSessionPool(name, properties, Math.max(0, Math.min(minIdle, max)), max, idleTimeout, maxLifetime, connectionTimeout);
+
+            pool.start();
+
+            return pool;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+/**
+ * Statistics for a {@link ThriftSessionPool}, registered with the platform MBean server as {@code veil.hdp.hive.jdbc:type=SessionPool,name=<pool name>}.
+ */
+public interface ThriftSessionPoolMXBean {
+
+    int getActiveSessions();
+
+    int getIdleSessions();
+
+    int getTotalSessions();
+
+    int getThreadsAwaitingSession();
+
+    long getSessionsCreated();
+
+    long getSessionsDestroyed();
+
+    long getSessionCreationFailures();
+
+    int getMinIdle();
+
+    int getMaxPoolSize();
+
+    void evictIdleSessions();
+}
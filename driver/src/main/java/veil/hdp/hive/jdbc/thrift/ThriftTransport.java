@@ -24,6 +24,9 @@ import veil.hdp.hive.jdbc.Builder;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
 import veil.hdp.hive.jdbc.TransportMode;
+import veil.hdp.hive.jdbc.bindings.TCLIService;
+import veil.hdp.hive.jdbc.http.HttpAuthState;
+import veil.hdp.hive.jdbc.http.HttpClientRegistry;
 import veil.hdp.hive.jdbc.utils.BinaryUtils;
 import veil.hdp.hive.jdbc.utils.DriverUtils;
 import veil.hdp.hive.jdbc.utils.HttpUtils;
@@ -35,21 +38,39 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ThriftTransport implements AutoCloseable {
 
     private static final Logger log = LogManager.getLogger(ThriftTransport.class);
 
     // constructor
+    private final Properties properties;
+    private final TransportMode mode;
+    private final CloseableHttpClient httpClient;
+    private final HttpAuthState authState;
+    // the http client, or the lease on a shared one, owned jointly by this transport and its siblings; null in binary mode
+    private final SharedCloseable httpResource;
+    private final TCLIService.Iface client;
     private TTransport transport;
     private List<Closeable> closeableList;
 
     // atomic
     private final AtomicBoolean closed = new AtomicBoolean(true);
 
-    private ThriftTransport(TTransport transport, List<Closeable> closeableList) {
+    // guards every request/response exchange on the underlying transport
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private ThriftTransport(Properties properties, TransportMode mode, TTransport transport, CloseableHttpClient httpClient, HttpAuthState authState, SharedCloseable httpResource, List<Closeable> closeableList) {
+        this.properties = properties;
+        this.mode = mode;
         this.transport = transport;
+        this.httpClient = httpClient;
+        this.authState = authState;
+        this.httpResource = httpResource;
         this.closeableList = closeableList;
+        this.client = ThriftUtils.createClient(this, properties);
 
         closed.set(false);
     }
@@ -62,10 +83,79 @@ public class ThriftTransport implements AutoCloseable {
         return transport;
     }
 
+    /**
+     * @return a client bound to this transport only
+     */
+    public TCLIService.Iface getClient() {
+        return client;
+    }
+
     public boolean isClosed() {
         return closed.get();
     }
 
+    public TransportMode getMode() {
+        return mode;
+    }
+
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Determines if additional requests can be issued concurrently with this transport, each on their own HTTP connection.  This is only possible in HTTP mode when the connection pool is enabled;
+     * the basic connection manager only supports a single connection at a time.
+     *
+     * @return true if a sibling transport can be opened with {@link #openSibling()}
+     */
+    public boolean supportsSiblings() {
+        return mode == TransportMode.http && (HiveDriverProperty.HTTP_POOL_ENABLED.getBoolean(properties) || authState != null);
+    }
+
+    /**
+     * Opens an additional Thrift transport that shares the HTTP client (and therefore its connection pool and authentication state) of this transport.  The caller is responsible for closing it.
+     *
+     * @return a new, open transport
+     */
+    public TTransport openSibling() {
+        if (!supportsSiblings()) {
+            throw new HiveException("sibling transports are only supported in http mode with pooling enabled");
+        }
+
+        TTransport sibling = HttpUtils.createHttpTransport(properties, httpClient, authState);
+
+        ThriftUtils.openTransport(sibling, HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties));
+
+        return sibling;
+    }
+
+    /**
+     * Opens another transport to the same HS2 instance.  In http mode with pooling the new transport shares this transport's HTTP client, otherwise a
+     * completely new transport is opened and authenticated.
+     *
+     * @return a new, open transport
+     */
+    public ThriftTransport duplicate() {
+        // the sibling keeps the http client open even if this transport is closed first; once every holder has closed it a new client is needed
+        if (supportsSiblings() && httpResource.retain()) {
+            List<Closeable> closeables = new ArrayList<>(1);
+            closeables.add(httpResource);
+
+            try {
+                return new ThriftTransport(properties, mode, openSibling(), httpClient, authState, httpResource, closeables);
+            } catch (RuntimeException e) {
+                DriverUtils.close(httpResource);
+                throw e;
+            }
+        }
+
+        return builder().properties(properties).build();
+    }
+
     /**
      * Determines if the ThriftTransport is in a valid state to execute another Thrift call. It checks both the closed flag as well as the underlying thrift transport status.
      *
@@ -119,28 +209,93 @@ public class ThriftTransport implements AutoCloseable {
             TransportMode mode = TransportMode.valueOf(HiveDriverProperty.TRANSPORT_MODE.get(properties));
 
             TTransport transport = null;
+            CloseableHttpClient client = null;
+            HttpAuthState authState = null;
+            SharedCloseable httpResource = null;
 
             List<Closeable> closeableList = new ArrayList<>(1);
 
             if (mode == TransportMode.binary) {
                 transport = BinaryUtils.createBinaryTransport(properties);
             } else if (mode == TransportMode.http) {
-                CloseableHttpClient client = HttpUtils.buildClient(properties);
+                // only the streaming transport can hand each request the connection's auth state, which a shared client depends on
+                if (HiveDriverProperty.HTTP_CLIENT_SHARED.getBoolean(properties) && HiveDriverProperty.HTTP_STREAMING_ENABLED.getBoolean(properties)) {
+                    HttpClientRegistry.Lease lease = HttpClientRegistry.acquire(properties);
+
+                    client = lease.getClient();
+                    authState = new HttpAuthState(properties);
+
+                    httpResource = new SharedCloseable(lease);
+                } else {
+                    client = HttpUtils.buildClient(properties);
+
+                    httpResource = new SharedCloseable(client);
+                }
 
-                closeableList.add(client);
+                closeableList.add(httpResource);
 
-                transport = HttpUtils.createHttpTransport(properties, client);
+                transport = HttpUtils.createHttpTransport(properties, client, authState);
             }
 
             if (transport == null) {
                 throw new HiveException("invalid transport mode [" + mode + ']');
             }
 
-            ThriftUtils.openTransport(transport, HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties));
+            try {
+                ThriftUtils.openTransport(transport, HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties));
+            } catch (RuntimeException e) {
+                // release the http client, or the shared client's reference, taken above
+                for (Closeable closeable : closeableList) {
+                    try {
+                        closeable.close();
+                    } catch (IOException io) {
+                        log.warn(io.getMessage(), io);
+                    }
+                }
+
+                throw e;
+            }
+
+            return new ThriftTransport(properties, mode, transport, client, authState, httpResource, closeableList);
+        }
+
 
-            return new ThriftTransport(transport, closeableList);
+    }
+
+    /**
+     * Closes the wrapped resource once every transport sharing it has been closed.
+     */
+    private static class SharedCloseable implements Closeable {
+
+        private final Closeable delegate;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        SharedCloseable(Closeable delegate) {
+            this.delegate = delegate;
         }
 
+        /**
+         * @return false if the resource has already been closed
+         */
+        boolean retain() {
+            while (true) {
+                int current = references.get();
+
+                if (current == 0) {
+                    return false;
+                }
 
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (references.decrementAndGet() == 0) {
+                delegate.close();
+            }
+        }
     }
 }
@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.Builder;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of transports that all serve the same HS2 session.  Session and operation handles are not tied to the connection they were created on,
+ * so concurrently active statements on one {@link veil.hdp.hive.jdbc.HiveConnection} can each borrow their own transport instead of queueing on one.
+ * The transport the session was opened on is always part of the pool; additional transports are opened on demand up to the configured size.
+ */
+public class ThriftTransportPool implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(ThriftTransportPool.class);
+
+    private static final long BORROW_POLL_INTERVAL = 100;
+
+    private final ThriftTransport primary;
+    private final int maxSize;
+    private final BlockingQueue<ThriftTransport> idle;
+    private final List<ThriftTransport> transports = new CopyOnWriteArrayList<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // atomic
+    private final AtomicBoolean closed = new AtomicBoolean(true);
+
+    private ThriftTransportPool(ThriftTransport primary, int maxSize) {
+        this.primary = primary;
+        this.maxSize = maxSize;
+        this.idle = new ArrayBlockingQueue<>(maxSize, true);
+
+        transports.add(primary);
+        idle.add(primary);
+        size.set(1);
+
+        closed.set(false);
+    }
+
+    public static ThriftTransportPoolBuilder builder() {
+        return new ThriftTransportPoolBuilder();
+    }
+
+    public ThriftTransport getPrimary() {
+        return primary;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Borrows a transport for exclusive use, opening a new one if none is idle and the pool has not reached its maximum size, otherwise waiting for one to be released.
+     *
+     * @return a transport which must be handed back with {@link #release(ThriftTransport)} or {@link #invalidate(ThriftTransport)}
+     */
+    public ThriftTransport borrow() {
+        return borrow(ThriftOperation.NO_DEADLINE);
+    }
+
+    /**
+     * Like {@link #borrow()} but gives up once the deadline passes.
+     *
+     * @param deadline absolute deadline in {@link System#nanoTime()} terms or {@link ThriftOperation#NO_DEADLINE} to wait indefinitely
+     * @return a transport or null if none became available before the deadline
+     */
+    public ThriftTransport borrow(long deadline) {
+
+        while (!closed.get()) {
+
+            ThriftTransport transport = idle.poll();
+
+            if (transport != null) {
+                return transport;
+            }
+
+            if (reserve()) {
+                try {
+                    transport = primary.duplicate();
+                } catch (RuntimeException e) {
+                    size.decrementAndGet();
+                    throw e;
+                }
+
+                log.debug("opened pooled transport {} of {}", size.get(), maxSize);
+
+                transports.add(transport);
+
+                return transport;
+            }
+
+            try {
+                // poll rather than take so a slot freed by an invalidated transport is noticed
+                transport = idle.poll(BORROW_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HiveException(e);
+            }
+
+            if (transport != null) {
+                return transport;
+            }
+
+            if (deadline != ThriftOperation.NO_DEADLINE && WatchdogUtils.isPast(deadline)) {
+                return null;
+            }
+        }
+
+        throw new HiveException("transport pool is closed");
+    }
+
+    public void release(ThriftTransport transport) {
+        if (closed.get() || transport.isClosed()) {
+            discard(transport);
+        } else {
+            idle.offer(transport);
+        }
+    }
+
+    /**
+     * Removes a transport that failed mid-exchange; it can no longer be trusted to be positioned at a message boundary.
+     */
+    public void invalidate(ThriftTransport transport) {
+        log.debug("invalidating pooled transport");
+
+        discard(transport);
+    }
+
+    private void discard(ThriftTransport transport) {
+        if (transports.remove(transport)) {
+            size.decrementAndGet();
+        }
+
+        if (!transport.isClosed()) {
+            transport.close();
+        }
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = size.get();
+
+            if (current >= maxSize) {
+                return false;
+            }
+
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+
+            log.trace("attempting to close {}", this.getClass().getName());
+
+            // siblings hold their own reference to the primary's http client, so the order does not matter
+            for (ThriftTransport transport : transports) {
+                transport.close();
+            }
+
+            primary.close();
+
+            transports.clear();
+            idle.clear();
+        }
+    }
+
+    public static class ThriftTransportPoolBuilder implements Builder<ThriftTransportPool> {
+
+        private Properties properties;
+        private ThriftTransport primary;
+
+        private ThriftTransportPoolBuilder() {
+        }
+
+        public ThriftTransportPoolBuilder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public ThriftTransportPoolBuilder primary(ThriftTransport primary) {
+            this.primary = primary;
+            return this;
+        }
+
+        public ThriftTransportPool build() {
+            int maxSize = Math.max(1, HiveDriverProperty.TRANSPORT_POOL_SIZE.getInt(properties));
+
+            return new ThriftTransportPool(primary, maxSize);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.thrift;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the duration of every Thrift call at trace level.  Only added to a client's chain when trace logging is enabled for this class.
+ */
+public class TimingInterceptor implements RpcInterceptor {
+
+    private static final Logger log = LogManager.getLogger(TimingInterceptor.class);
+
+    public static boolean isEnabled() {
+        return log.isTraceEnabled();
+    }
+
+    @Override
+    public void after(String method, long elapsedNanos, Throwable error) {
+        if (error == null) {
+            log.trace("{} took {} ms", method, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        } else {
+            log.trace("{} failed after {} ms", method, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+}
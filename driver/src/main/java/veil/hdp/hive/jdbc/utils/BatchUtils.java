@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import java.util.regex.Pattern;
+
+public final class BatchUtils {
+
+    private static final Pattern INSERT_INTO_PATTERN = Pattern.compile("^\\s*INSERT\\s+INTO\\s", Pattern.CASE_INSENSITIVE);
+    private static final String VALUES = "VALUES";
+
+    private static final char SINGLE_QUOTE = '\'';
+    private static final char DOUBLE_QUOTE = '"';
+    private static final char BACKTICK = '`';
+    private static final char BACKSLASH = '\\';
+    private static final char OPEN_PARENTHESIS = '(';
+    private static final char CLOSE_PARENTHESIS = ')';
+    private static final char SEMICOLON = ';';
+
+    private BatchUtils() {
+    }
+
+    /**
+     * Determines if the sql is an {@code INSERT INTO ... VALUES} statement whose rows can be combined with the rows of other statements sharing the same prefix.
+     * {@code INSERT OVERWRITE} is deliberately excluded since each chunk would replace the previous one.
+     *
+     * @param sql the sql to inspect
+     * @return true if the statement can be rewritten into a multi-row insert
+     */
+    public static boolean isInsertValues(String sql) {
+        return sql != null && INSERT_INTO_PATTERN.matcher(sql).find() && findValuesList(sql) != -1;
+    }
+
+    /**
+     * Finds the start of the values list of an {@code INSERT INTO ... VALUES (...)} statement.  The {@code VALUES} keyword is only matched outside of quoted strings and identifiers.
+     *
+     * @param sql a fully rendered insert statement
+     * @return the index of the opening parenthesis of the first row or -1 if the statement does not end with a values list
+     */
+    public static int findValuesList(String sql) {
+
+        int length = sql.length();
+
+        char quote = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+
+            if (quote != 0) {
+                if (c == BACKSLASH && quote != BACKTICK) {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE || c == BACKTICK) {
+                quote = c;
+            } else if (isKeywordAt(sql, i)) {
+
+                int start = i + VALUES.length();
+
+                while (start < length && Character.isWhitespace(sql.charAt(start))) {
+                    start++;
+                }
+
+                int end = trimmedEnd(sql);
+
+                if (start < end && sql.charAt(start) == OPEN_PARENTHESIS && sql.charAt(end - 1) == CLOSE_PARENTHESIS) {
+                    return start;
+                }
+
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the rows portion of a rendered insert statement, ie. everything from {@code valuesStart} up to the last closing parenthesis.
+     *
+     * @param sql         a fully rendered insert statement
+     * @param valuesStart the value returned by {@link #findValuesList(String)}
+     * @return the rows, eg. {@code (1, 'a'), (2, 'b')}
+     */
+    public static String getValuesList(String sql, int valuesStart) {
+        return sql.substring(valuesStart, trimmedEnd(sql));
+    }
+
+    /**
+     * Computes the number of bytes needed to encode the characters as UTF-8 without allocating an encoded copy.
+     *
+     * @param value the characters to measure
+     * @return the encoded length in bytes
+     */
+    public static int utf8Length(CharSequence value) {
+        int length = value.length();
+        int bytes = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static boolean isKeywordAt(String sql, int index) {
+        if (!sql.regionMatches(true, index, VALUES, 0, VALUES.length())) {
+            return false;
+        }
+
+        if (index > 0 && isIdentifierPart(sql.charAt(index - 1))) {
+            return false;
+        }
+
+        int after = index + VALUES.length();
+
+        return after >= sql.length() || !isIdentifierPart(sql.charAt(after));
+    }
+
+    // underscores and dollar signs are part of an identifier, not word boundaries
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static int trimmedEnd(String sql) {
+        int end = sql.length();
+
+        while (end > 0 && (Character.isWhitespace(sql.charAt(end - 1)) || sql.charAt(end - 1) == SEMICOLON)) {
+            end--;
+        }
+
+        return end;
+    }
+}
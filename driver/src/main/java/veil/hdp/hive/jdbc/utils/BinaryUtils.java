@@ -19,19 +19,23 @@ package veil.hdp.hive.jdbc.utils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.thrift.transport.*;
-import org.apache.thrift.transport.TSSLTransportFactory.TSSLTransportParameters;
 import veil.hdp.hive.jdbc.AuthenticationMode;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
 import veil.hdp.hive.jdbc.security.*;
+import veil.hdp.hive.jdbc.thrift.NioSocketTransport;
 
 import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslClient;
 import javax.security.sasl.SaslException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -41,11 +45,13 @@ public final class BinaryUtils {
 
     private static final Logger log = LogManager.getLogger(BinaryUtils.class);
     private static final String ENDPOINT_IDENTIFICATION_ALGORITHM_NAME = "HTTPS";
+    private static final String DIGEST_MD5 = "DIGEST-MD5";
+    private static final String DIGEST_REALM = "default";
 
     private BinaryUtils() {
     }
 
-    private static TSocket createSocket(Properties properties) {
+    private static TTransport createSocket(Properties properties) {
 
         String host = HiveDriverProperty.HOST_NAME.get(properties);
         int port = HiveDriverProperty.PORT_NUMBER.getInt(properties);
@@ -57,48 +63,88 @@ public final class BinaryUtils {
 
             return buildSSLSocket(properties, host, port, socketTimeout);
 
+        } else if (HiveDriverProperty.THRIFT_SOCKET_NIO_ENABLED.getBoolean(properties)) {
+
+            return NioSocketTransport.builder()
+                    .host(host)
+                    .port(port)
+                    .connectTimeout(connectionTimeout)
+                    .socketTimeout(socketTimeout)
+                    .bufferSize(HiveDriverProperty.THRIFT_SOCKET_BUFFER_SIZE.getInt(properties))
+                    .receiveBufferSize(HiveDriverProperty.SOCKET_RECEIVE_BUFFER_SIZE.getInt(properties))
+                    .sendBufferSize(HiveDriverProperty.SOCKET_SEND_BUFFER_SIZE.getInt(properties))
+                    .tcpNoDelay(HiveDriverProperty.SOCKET_TCP_NO_DELAY.getBoolean(properties))
+                    .keepAlive(HiveDriverProperty.SOCKET_KEEP_ALIVE.getBoolean(properties))
+                    .build();
+
         } else {
 
-            return new TSocket(host, port, socketTimeout, connectionTimeout);
+            TSocket socket = new TSocket(host, port, socketTimeout, connectionTimeout);
+
+            configureSocket(properties, socket.getSocket());
+
+            return socket;
         }
 
     }
 
+    // applied before the socket connects, so the receive buffer size can take part in window scale negotiation
+    private static void configureSocket(Properties properties, Socket socket) {
+        try {
+            socket.setTcpNoDelay(HiveDriverProperty.SOCKET_TCP_NO_DELAY.getBoolean(properties));
+            socket.setKeepAlive(HiveDriverProperty.SOCKET_KEEP_ALIVE.getBoolean(properties));
+
+            int receiveBufferSize = HiveDriverProperty.SOCKET_RECEIVE_BUFFER_SIZE.getInt(properties);
+
+            if (receiveBufferSize > 0) {
+                socket.setReceiveBufferSize(receiveBufferSize);
+            }
+
+            int sendBufferSize = HiveDriverProperty.SOCKET_SEND_BUFFER_SIZE.getInt(properties);
+
+            if (sendBufferSize > 0) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+        } catch (SocketException e) {
+            throw new HiveException(e);
+        }
+    }
+
     private static TSocket buildSSLSocket(Properties properties, String host, int port, int socketTimeout) {
         try {
 
-            TSocket socket;
+            SSLSocketFactory socketFactory;
 
             if (HiveDriverProperty.SSL_TRUST_STORE_PATH.hasValue(properties)) {
-                TSSLTransportParameters params = new TSSLTransportParameters();
-                params.setTrustStore(HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties), null, HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties));
-                params.requireClientAuth(true);
-
-                socket = TSSLTransportFactory.getClientSocket(host, port, socketTimeout, params);
+                socketFactory = SslContextUtils.getSSLContext(
+                        HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties),
+                        null, null, null).getSocketFactory();
             } else {
-
-                socket = TSSLTransportFactory.getClientSocket(host, port, socketTimeout);
+                socketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
             }
 
-            SSLSocket sslSocket = (SSLSocket) socket.getSocket();
+            // created with the peer's host and port so the context's session cache can resume an earlier session with this server
+            SSLSocket sslSocket = (SSLSocket) socketFactory.createSocket(host, port);
+            sslSocket.setSoTimeout(socketTimeout);
+
             SSLParameters sslParams = sslSocket.getSSLParameters();
             sslParams.setEndpointIdentificationAlgorithm(ENDPOINT_IDENTIFICATION_ALGORITHM_NAME);
             sslSocket.setSSLParameters(sslParams);
 
+            configureSocket(properties, sslSocket);
+
             return new TSocket(sslSocket);
 
-        } catch (TTransportException e) {
+        } catch (IOException | TTransportException e) {
             throw new HiveException(e);
         }
     }
 
     public static TTransport createBinaryTransport(Properties properties) {
-        // todo: no support for delegation tokens
-
 
         AuthenticationMode authenticationMode = AuthenticationMode.valueOf(HiveDriverProperty.AUTHENTICATION_MODE.get(properties));
 
-        TSocket socket = createSocket(properties);
+        TTransport socket = createSocket(properties);
 
         switch (authenticationMode) {
 
@@ -107,6 +153,10 @@ public final class BinaryUtils {
             case NOSASL:
                 return socket;
             case KERBEROS:
+                if (HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.hasValue(properties)) {
+                    return buildSocketWithDelegationToken(properties, socket);
+                }
+
                 return buildSocketWithKerberos(properties, socket);
 
         }
@@ -116,7 +166,7 @@ public final class BinaryUtils {
 
     }
 
-    private static TTransport buildSocketWithSASL(TSocket socket) {
+    private static TTransport buildSocketWithSASL(TTransport socket) {
 
         try {
 
@@ -130,7 +180,7 @@ public final class BinaryUtils {
         }
     }
 
-    private static TTransport buildSocketWithKerberos(Properties properties, TSocket socket) {
+    private static TTransport buildSocketWithKerberos(Properties properties, TTransport socket) {
 
         try {
 
@@ -151,17 +201,36 @@ public final class BinaryUtils {
 
     }
 
-    private static TTransport buildSaslTransport(Properties properties, TSocket socket) throws SaslException {
+    private static TTransport buildSocketWithDelegationToken(Properties properties, TTransport socket) {
 
-        ServicePrincipal servicePrincipal = PrincipalUtils.parseServicePrincipal(HiveDriverProperty.KERBEROS_SERVER_PRINCIPAL.get(properties), HiveDriverProperty.HOST_NAME.get(properties));
+        DelegationToken token = DelegationToken.decode(HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.get(properties));
 
-        log.debug("service principal [{}]", servicePrincipal);
+        try {
+            // the protocol and server name hadoop's token authentication expects
+            SaslClient saslClient = Sasl.createSaslClient(new String[]{DIGEST_MD5}, null, null, DIGEST_REALM, buildSaslProperties(properties), new DelegationTokenCallbackHandler(token));
 
+            return new TSaslClientTransport(saslClient, socket);
+
+        } catch (SaslException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    private static Map<String, String> buildSaslProperties(Properties properties) {
         Map<String, String> saslProps = new HashMap<>(2);
         saslProps.put(Sasl.QOP, HiveDriverProperty.SASL_QUALITY_OF_PROTECTION.get(properties));
         saslProps.put(Sasl.SERVER_AUTH, HiveDriverProperty.SASL_SERVER_AUTHENTICATION_ENABLED.get(properties));
 
-        SaslClient saslClient = Sasl.createSaslClient(new String[]{SaslMechanism.GSSAPI.name()}, null, servicePrincipal.getService(), servicePrincipal.getHost(), saslProps, new TextCallbackHandler());
+        return saslProps;
+    }
+
+    private static TTransport buildSaslTransport(Properties properties, TTransport socket) throws SaslException {
+
+        ServicePrincipal servicePrincipal = PrincipalUtils.parseServicePrincipal(HiveDriverProperty.KERBEROS_SERVER_PRINCIPAL.get(properties), HiveDriverProperty.HOST_NAME.get(properties));
+
+        log.debug("service principal [{}]", servicePrincipal);
+
+        SaslClient saslClient = Sasl.createSaslClient(new String[]{SaslMechanism.GSSAPI.name()}, null, servicePrincipal.getService(), servicePrincipal.getHost(), buildSaslProperties(properties), new TextCallbackHandler());
 
         return new TSaslClientTransport(saslClient, socket);
     }
@@ -0,0 +1,226 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.HiveSQLException;
+import veil.hdp.hive.jdbc.balancer.HostStats;
+
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Opens connections in the background on a small pool shared by the whole JVM, so many sessions can be opened in parallel without a thread per
+ * attempt.  Attempts beyond the pool size queue until a thread is free; once the queue is full further attempts fail immediately rather than waiting
+ * for a thread only to start after their own timeouts have expired.
+ */
+public final class ConnectUtils {
+
+    private static final Logger log = LogManager.getLogger(ConnectUtils.class);
+
+    private static final int MAX_THREADS = 16;
+    private static final int MAX_QUEUED = 4 * MAX_THREADS;
+    // connects to a host before its own percentile is used for the hedging delay
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private static final ThreadPoolExecutor CONNECT_EXECUTOR = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+        Thread thread = new Thread(r, "hive-connect-thread");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+    static {
+        CONNECT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private ConnectUtils() {
+    }
+
+    /**
+     * Runs {@code connector} on the shared pool.  The caller's access control context is carried over, so a connection requested inside
+     * {@code Subject.doAs} authenticates as that subject.
+     */
+    public static CompletableFuture<Connection> connectAsync(Connector connector) {
+        AccessControlContext context = AccessController.getContext();
+
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+
+        try {
+            CONNECT_EXECUTOR.execute(() -> AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+                try {
+                    future.complete(connector.connect());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+
+                return null;
+            }, context));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(saturated(e));
+        }
+
+        return future;
+    }
+
+    /**
+     * Opens a connection to the primary host on the shared pool.  If it has not opened within {@code connectHedgePercentile} of the host's recent
+     * connect times, a second connect is started against another host and whichever connection opens first is returned; the other is closed
+     * when it completes.
+     *
+     * @param primary     properties naming the first host
+     * @param alternative builds properties naming a host other than the given one; may name the same host if there is no other
+     * @param opener      opens a connection from properties
+     */
+    public static Connection connectHedged(Properties primary, Function<HostStats, Properties> alternative, Function<Properties, Connection> opener) throws SQLException {
+        HostStats primaryHost = HostStats.forHost(HiveDriverProperty.HOST_NAME.get(primary), HiveDriverProperty.PORT_NUMBER.getInt(primary));
+
+        long delay = primaryHost.getConnectTimePercentile(Double.parseDouble(HiveDriverProperty.CONNECT_HEDGE_PERCENTILE.get(primary)), MIN_HEDGE_SAMPLES);
+
+        if (delay < 0) {
+            delay = HiveDriverProperty.CONNECT_HEDGE_DELAY.getInt(primary);
+        }
+
+        Hedge hedge = new Hedge(opener, AccessController.getContext());
+
+        if (!hedge.start(primary)) {
+            // no thread to hedge with; connect without hedging rather than failing
+            return opener.apply(primary);
+        }
+
+        try {
+            // the delay covers the connect itself, not time spent waiting for a thread
+            long started = hedge.started.get();
+            long remaining = delay - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            try {
+                return hedge.result.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Properties secondary = alternative.apply(primaryHost);
+
+                boolean sameHost = HiveDriverProperty.HOST_NAME.get(secondary).equals(HiveDriverProperty.HOST_NAME.get(primary))
+                        && HiveDriverProperty.PORT_NUMBER.getInt(secondary) == primaryHost.getPort();
+
+                if (!sameHost && !hedge.result.isDone()) {
+                    log.debug("connect to [{}] slower than [{}] ms; hedging with [{}]", primaryHost, delay, HiveDriverProperty.HOST_NAME.get(secondary));
+
+                    if (!hedge.start(secondary)) {
+                        log.debug("connect pool saturated; not hedging");
+                    }
+                }
+
+                return hedge.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            // nobody is waiting for the connection any more
+            hedge.result.thenAccept(DriverUtils::close);
+
+            throw new HiveSQLException("interrupted while connecting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new HiveSQLException(cause.getMessage(), cause);
+        }
+    }
+
+    private static SQLTransientConnectionException saturated(RejectedExecutionException e) {
+        return new SQLTransientConnectionException("too many connection attempts in progress; [" + MAX_QUEUED + "] are already waiting for a thread", e);
+    }
+
+    private static class Hedge {
+        private final CompletableFuture<Connection> result = new CompletableFuture<>();
+        // System.nanoTime() when the first attempt began running
+        private final CompletableFuture<Long> started = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Function<Properties, Connection> opener;
+        private final AccessControlContext context;
+
+        Hedge(Function<Properties, Connection> opener, AccessControlContext context) {
+            this.opener = opener;
+            this.context = context;
+        }
+
+        /**
+         * @return false if the attempt could not be started because the connect pool is saturated
+         */
+        boolean start(Properties properties) {
+            pending.incrementAndGet();
+
+            try {
+                CONNECT_EXECUTOR.execute(() -> AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+                    started.complete(System.nanoTime());
+
+                    try {
+                        Connection connection = opener.apply(properties);
+
+                        if (!result.complete(connection)) {
+                            // the other attempt won
+                            DriverUtils.close(connection);
+                        }
+                    } catch (Throwable e) {
+                        // only fail once every attempt has failed; the last error is reported
+                        if (pending.decrementAndGet() == 0) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    return null;
+                }, context));
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Connector {
+        Connection connect() throws SQLException;
+    }
+}
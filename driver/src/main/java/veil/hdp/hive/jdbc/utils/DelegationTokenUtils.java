@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.AuthenticationMode;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.security.KerberosService;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.login.LoginException;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delegation tokens shared by every connection of one kerberos identity to one server.  The first connection authenticates with kerberos and asks
+ * the server for a token; the connections that follow authenticate with the token (SASL DIGEST-MD5 in binary mode, a header in http mode) and
+ * never touch the KDC.  Tokens are renewed in the background over a short lived kerberos session and dropped once no connection has used them
+ * for two renewal intervals.
+ */
+public final class DelegationTokenUtils {
+
+    private static final Logger log = LogManager.getLogger(DelegationTokenUtils.class);
+
+    // after a server refuses to issue a token, connections use kerberos for this long before asking again
+    private static final long REFUSAL_BACKOFF = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ConcurrentMap<String, CachedToken> TOKENS = new ConcurrentHashMap<>();
+
+    private static final ScheduledThreadPoolExecutor RENEWER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-delegation-token-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        RENEWER.setRemoveOnCancelPolicy(true);
+    }
+
+    private DelegationTokenUtils() {
+    }
+
+    public static boolean isEnabled(Properties properties) {
+        return HiveDriverProperty.KERBEROS_DELEGATION_TOKEN_CACHE_ENABLED.getBoolean(properties)
+                && AuthenticationMode.valueOf(HiveDriverProperty.AUTHENTICATION_MODE.get(properties)) == AuthenticationMode.KERBEROS
+                && !HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.hasValue(properties);
+    }
+
+    /**
+     * @return a copy of the properties carrying the cached token, or null if there is no token for the connection's identity and server
+     */
+    public static Properties withCachedToken(Properties properties) {
+        if (!isEnabled(properties)) {
+            return null;
+        }
+
+        CachedToken cached = TOKENS.get(buildKey(properties));
+
+        if (cached == null || cached.token == null) {
+            return null;
+        }
+
+        cached.lastUsed = System.currentTimeMillis();
+
+        Properties copy = new Properties();
+        copy.putAll(properties);
+
+        HiveDriverProperty.KERBEROS_DELEGATION_TOKEN.set(copy, cached.token);
+
+        return copy;
+    }
+
+    /**
+     * Asks the server for a token over a session that authenticated with kerberos, unless a token is cached already or the server refused one
+     * recently.  Failures are logged; the connection itself is unaffected.
+     */
+    public static void obtain(Properties properties, ThriftSession session) {
+        if (!isEnabled(properties)) {
+            return;
+        }
+
+        String key = buildKey(properties);
+
+        CachedToken existing = TOKENS.get(key);
+
+        if (existing != null && (existing.token != null || System.currentTimeMillis() < existing.retryAfter)) {
+            return;
+        }
+
+        CachedToken cached;
+
+        try {
+            String name = getShortName(properties);
+
+            cached = new CachedToken(ThriftUtils.getDelegationToken(session, name, name), 0);
+
+            log.debug("obtained delegation token for [{}]", name);
+        } catch (LoginException | RuntimeException e) {
+            log.warn("unable to obtain a delegation token; connections will keep using kerberos", e);
+
+            cached = new CachedToken(null, System.currentTimeMillis() + REFUSAL_BACKOFF);
+        }
+
+        CachedToken previous = TOKENS.put(key, cached);
+
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        if (cached.token != null) {
+            Properties renewProperties = new Properties();
+            renewProperties.putAll(properties);
+
+            HiveDriverProperty.KERBEROS_DELEGATION_TOKEN_CACHE_ENABLED.set(renewProperties, false);
+            HiveDriverProperty.KEEP_ALIVE_INTERVAL.set(renewProperties, 0);
+
+            // renewals authenticate as the caller that obtained the token, which matters for pre-authenticated subjects
+            schedule(key, cached, renewProperties, AccessController.getContext());
+        }
+    }
+
+    /**
+     * Drops the token of the connection's identity and server, eg. after the server rejected it.
+     */
+    public static void invalidate(Properties properties) {
+        CachedToken cached = TOKENS.remove(buildKey(properties));
+
+        if (cached != null) {
+            cached.cancel();
+        }
+    }
+
+    private static void schedule(String key, CachedToken cached, Properties properties, AccessControlContext context) {
+        long interval = HiveDriverProperty.KERBEROS_DELEGATION_TOKEN_RENEW_INTERVAL.getInt(properties);
+
+        cached.renewal = RENEWER.schedule(() -> AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            renew(key, cached, properties, context, interval);
+            return null;
+        }, context), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void renew(String key, CachedToken cached, Properties properties, AccessControlContext context, long interval) {
+        if (TOKENS.get(key) != cached) {
+            return;
+        }
+
+        if (System.currentTimeMillis() - cached.lastUsed > 2 * interval) {
+            log.debug("delegation token [{}] is no longer used; dropping it", key);
+
+            TOKENS.remove(key, cached);
+            return;
+        }
+
+        try (ThriftSession session = ThriftSession.builder().properties(properties).build()) {
+            ThriftUtils.renewDelegationToken(session, cached.token);
+
+            log.debug("renewed delegation token [{}]", key);
+        } catch (RuntimeException e) {
+            // most likely past its maximum lifetime; the next connection uses kerberos and obtains a new token
+            log.warn("unable to renew delegation token [" + key + ']', e);
+
+            TOKENS.remove(key, cached);
+            return;
+        }
+
+        schedule(key, cached, properties, context);
+    }
+
+    private static String buildKey(Properties properties) {
+        return KerberosService.getIdentity(properties) + ' ' + HiveDriverProperty.HOST_NAME.get(properties) + ':' + HiveDriverProperty.PORT_NUMBER.get(properties);
+    }
+
+    private static String getShortName(Properties properties) throws LoginException {
+        Subject subject = KerberosService.getSubject(properties);
+
+        if (subject != null) {
+            for (KerberosPrincipal principal : subject.getPrincipals(KerberosPrincipal.class)) {
+                return principal.getName().split("[/@]")[0];
+            }
+        }
+
+        // the OS login modules carry no kerberos principal; the ticket cache belongs to the OS user
+        return System.getProperty("user.name");
+    }
+
+    private static class CachedToken {
+        private final String token;
+        private final long retryAfter;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile ScheduledFuture<?> renewal;
+
+        CachedToken(String token, long retryAfter) {
+            this.token = token;
+            this.retryAfter = retryAfter;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> future = renewal;
+
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
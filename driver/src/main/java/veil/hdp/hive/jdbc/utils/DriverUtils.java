@@ -23,6 +23,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveSQLException;
+import veil.hdp.hive.jdbc.balancer.HostStats;
 
 import java.net.URI;
 import java.sql.DriverPropertyInfo;
@@ -64,6 +65,13 @@ public final class DriverUtils {
 
 
     public static Properties buildProperties(String url, Properties suppliedProperties) {
+        return buildProperties(url, suppliedProperties, null);
+    }
+
+    /**
+     * @param excluded a host to avoid when the url names several hosts or uses zookeeper, or null
+     */
+    public static Properties buildProperties(String url, Properties suppliedProperties, HostStats excluded) {
 
         Properties properties = new Properties();
 
@@ -74,7 +82,7 @@ public final class DriverUtils {
         loadSuppliedProperties(suppliedProperties, properties);
 
         // parse the url supplied by the JDBC api Driver.connect method
-        parseUrl(url, properties);
+        parseUrl(url, properties, excluded);
 
         return properties;
 
@@ -154,7 +162,7 @@ public final class DriverUtils {
     }
 
 
-    private static void parseUrl(String url, Properties properties) {
+    private static void parseUrl(String url, Properties properties, HostStats excluded) {
 
         URI uri = URI.create(stripPrefix(url));
 
@@ -168,11 +176,11 @@ public final class DriverUtils {
 
         boolean zookeeperDiscoveryEnabled = HiveDriverProperty.ZOOKEEPER_DISCOVERY_ENABLED.getBoolean(properties);
 
-        if (zookeeperDiscoveryEnabled) {
+        if (zookeeperDiscoveryEnabled || (uri.getAuthority() != null && uri.getAuthority().indexOf(',') != -1)) {
 
-            String authority = uri.getAuthority();
+            HiveDriverProperty.HOST_CANDIDATES.set(properties, uri.getAuthority());
 
-            ZookeeperUtils.loadPropertiesFromZookeeper(authority, properties);
+            selectHost(uri.getAuthority(), properties, excluded);
 
         } else {
 
@@ -187,6 +195,43 @@ public final class DriverUtils {
 
     }
 
+    /**
+     * Chooses the host again from the hosts, or the Zookeeper quorum, named by the url the properties were built from.  Sessions opened from the
+     * same properties, such as those of a pool, are then spread by the host selection policy and avoid hosts whose circuit is open instead of all
+     * going to the host chosen when the properties were built.
+     *
+     * @param excluded a host to avoid, or null
+     * @return a copy of the properties naming the chosen host, or the properties themselves if the url named a single host
+     */
+    public static Properties selectHost(Properties properties, HostStats excluded) {
+        String authority = HiveDriverProperty.HOST_CANDIDATES.get(properties);
+
+        if (authority == null) {
+            return properties;
+        }
+
+        Properties selected = new Properties();
+        selected.putAll(properties);
+
+        selectHost(authority, selected, excluded);
+
+        return selected;
+    }
+
+    private static void selectHost(String authority, Properties properties, HostStats excluded) {
+        if (HiveDriverProperty.ZOOKEEPER_DISCOVERY_ENABLED.getBoolean(properties)) {
+
+            ZookeeperUtils.loadPropertiesFromZookeeper(authority, properties, excluded);
+
+        } else {
+
+            HostStats host = HostSelectionUtils.selectHost(properties, authority, excluded);
+
+            HiveDriverProperty.HOST_NAME.set(properties, host.getHost());
+            HiveDriverProperty.PORT_NUMBER.set(properties, host.getPort());
+        }
+    }
+
     private static void parseQueryParameters(String uriQuery, Properties properties) {
 
         Map<String, String> parameters = new HashMap<>();
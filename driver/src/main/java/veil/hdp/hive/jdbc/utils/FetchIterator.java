@@ -40,7 +40,13 @@ public class FetchIterator extends AbstractIterator<ColumnBasedSet> {
     @Override
     protected ColumnBasedSet computeNext() {
 
-        ColumnBasedSet cbs = ThriftUtils.fetchResults(operation, orientation, fetchSize);
+        ColumnBasedSet cbs;
+
+        if (operation.hasPrefetchedPage()) {
+            cbs = operation.takePrefetchedPage();
+        } else {
+            cbs = ThriftUtils.fetchResults(operation, orientation, fetchSize);
+        }
 
         if (cbs != null && cbs.getRowCount() > 0) {
             return cbs;
@@ -21,8 +21,14 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
 import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.thrift.transport.TTransportException;
+import org.ietf.jgss.GSSException;
 import veil.hdp.hive.jdbc.HiveSQLException;
+import veil.hdp.hive.jdbc.HiveTimeoutException;
 
+import javax.security.auth.login.LoginException;
+import javax.security.sasl.SaslException;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -30,6 +36,8 @@ import java.util.List;
 
 public final class HiveExceptionUtils {
 
+    private static final String HTTP_RESPONSE_CODE = "HTTP Response code: ";
+
     private HiveExceptionUtils() {
     }
 
@@ -76,6 +84,57 @@ public final class HiveExceptionUtils {
         return throwable;
     }
 
+    /**
+     * @return true if the server could not be reached or stopped answering while connecting: refused, unreachable, timed out or dropped.  A server
+     * that answered and rejected the credentials is not a connect failure.
+     */
+    public static boolean isConnectFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            // SaslException is an IOException; it means the server answered
+            if (isCredentialFailure(cause)) {
+                return false;
+            }
+
+            if (cause instanceof IOException || cause instanceof HiveTimeoutException) {
+                return true;
+            }
+
+            if (cause instanceof TTransportException) {
+                int type = ((TTransportException) cause).getType();
+
+                if (type == TTransportException.NOT_OPEN || type == TTransportException.TIMED_OUT || type == TTransportException.END_OF_FILE) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the server, or the local login, rejected the credentials; retrying with other credentials may succeed
+     */
+    public static boolean isAuthenticationFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (isCredentialFailure(cause)) {
+                return true;
+            }
+
+            // a sasl negotiation the server refused and an http 401/403 both arrive as a bare transport exception
+            if (cause instanceof TTransportException && cause.getCause() == null && ((TTransportException) cause).getType() == TTransportException.UNKNOWN) {
+                String message = cause.getMessage();
+
+                return message == null || !message.startsWith(HTTP_RESPONSE_CODE) || message.endsWith("401") || message.endsWith("403");
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isCredentialFailure(Throwable cause) {
+        return cause instanceof SaslException || cause instanceof GSSException || cause instanceof LoginException;
+    }
+
     private static Throwable newInstance(String className, String message, Throwable cause) {
         try {
             return (Throwable) Class.forName(className).getConstructor(String.class, Throwable.class).newInstance(message, cause);
@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import com.google.common.base.Splitter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.balancer.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+public final class HostSelectionUtils {
+
+    private static final Logger log = LogManager.getLogger(HostSelectionUtils.class);
+
+    public static final String RANDOM = "RANDOM";
+    public static final String LEAST_OUTSTANDING = "LEAST_OUTSTANDING";
+    public static final String LATENCY_EWMA = "LATENCY_EWMA";
+    public static final String POWER_OF_TWO_CHOICES = "POWER_OF_TWO_CHOICES";
+
+    // built-in policies by name and custom policies by class name; one instance of each per JVM
+    private static final ConcurrentMap<String, HostSelectionPolicy> POLICIES = new ConcurrentHashMap<>();
+
+    static {
+        POLICIES.put(RANDOM, new RandomPolicy());
+        POLICIES.put(LEAST_OUTSTANDING, new LeastOutstandingPolicy());
+        POLICIES.put(LATENCY_EWMA, new LatencyEwmaPolicy());
+        POLICIES.put(POWER_OF_TWO_CHOICES, new PowerOfTwoChoicesPolicy());
+    }
+
+    private HostSelectionUtils() {
+    }
+
+    public static HostSelectionPolicy getPolicy(Properties properties) {
+        String name = HiveDriverProperty.HOST_SELECTION_POLICY.get(properties);
+
+        HostSelectionPolicy policy = POLICIES.get(name.toUpperCase(Locale.ENGLISH));
+
+        if (policy != null) {
+            return policy;
+        }
+
+        return POLICIES.computeIfAbsent(name, HostSelectionUtils::instantiate);
+    }
+
+    /**
+     * @return true if calls should be counted and timed for the configured policy; the random policy needs neither
+     */
+    public static boolean isTrackingEnabled(Properties properties) {
+        return !(getPolicy(properties) instanceof RandomPolicy);
+    }
+
+    /**
+     * Hosts whose circuit is open, and the excluded host, are only chosen when no other candidate is left.
+     *
+     * @param stats    maps a candidate to the statistics of the host it describes
+     * @param excluded a host to avoid, or null
+     * @return the candidate chosen by the configured policy
+     */
+    public static <T> T select(Properties properties, List<T> candidates, Function<T, HostStats> stats, HostStats excluded) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        List<T> available = new ArrayList<>(candidates.size());
+        List<HostStats> hosts = new ArrayList<>(candidates.size());
+
+        for (T candidate : candidates) {
+            HostStats host = stats.apply(candidate);
+
+            if (host != excluded && !host.isCircuitOpen()) {
+                available.add(candidate);
+                hosts.add(host);
+            }
+        }
+
+        if (available.isEmpty()) {
+            log.debug("no healthy host among {} candidates; ignoring host health", candidates.size());
+
+            available = candidates;
+            hosts.clear();
+
+            for (T candidate : candidates) {
+                hosts.add(stats.apply(candidate));
+            }
+        }
+
+        HostStats selected = hosts.size() == 1 ? hosts.get(0) : getPolicy(properties).select(hosts);
+
+        log.debug("selected host [{}] from {}", selected, hosts);
+
+        for (int i = 0; i < hosts.size(); i++) {
+            if (hosts.get(i) == selected) {
+                return available.get(i);
+            }
+        }
+
+        throw new HiveException("host selection policy [" + HiveDriverProperty.HOST_SELECTION_POLICY.get(properties) + "] returned a host that was not a candidate");
+    }
+
+    /**
+     * @param authority the comma separated hosts of a multi-host URL, each with an optional port, eg. {@code h1:10000,h2:10000}
+     * @param excluded  a host to avoid, or null
+     * @return the selected host
+     */
+    public static HostStats selectHost(Properties properties, String authority, HostStats excluded) {
+        int defaultPort = HiveDriverProperty.PORT_NUMBER.getInt(properties);
+
+        List<HostStats> hosts = new ArrayList<>();
+
+        for (String hostAndPort : Splitter.on(',').trimResults().omitEmptyStrings().split(authority)) {
+            hosts.add(parseHost(hostAndPort, defaultPort));
+        }
+
+        if (hosts.isEmpty()) {
+            throw new HiveException("no hosts found in [" + authority + ']');
+        }
+
+        return select(properties, hosts, h -> h, excluded);
+    }
+
+    static HostStats parseHost(String hostAndPort, int defaultPort) {
+        // ipv6 literals are bracketed so their colons are not mistaken for the port separator
+        int portSeparator = hostAndPort.startsWith("[") ? hostAndPort.indexOf(':', hostAndPort.indexOf(']')) : hostAndPort.lastIndexOf(':');
+
+        if (portSeparator == -1) {
+            return HostStats.forHost(hostAndPort, defaultPort);
+        }
+
+        try {
+            return HostStats.forHost(hostAndPort.substring(0, portSeparator), Integer.parseInt(hostAndPort.substring(portSeparator + 1)));
+        } catch (NumberFormatException e) {
+            throw new HiveException("invalid port in host [" + hostAndPort + ']', e);
+        }
+    }
+
+    private static HostSelectionPolicy instantiate(String className) {
+        try {
+            return Class.forName(className).asSubclass(HostSelectionPolicy.class).newInstance();
+        } catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException e) {
+            throw new HiveException("host selection policy [" + className + "] is not a built-in policy or a class implementing " + HostSelectionPolicy.class.getName(), e);
+        }
+    }
+}
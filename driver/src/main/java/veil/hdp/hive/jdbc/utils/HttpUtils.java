@@ -16,21 +16,23 @@
 
 package veil.hdp.hive.jdbc.utils;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.ssl.SSLContexts;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.thrift.transport.THttpClient;
@@ -39,16 +41,18 @@ import org.apache.thrift.transport.TTransportException;
 import veil.hdp.hive.jdbc.AuthenticationMode;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.http.BodyMetricsInterceptor;
+import veil.hdp.hive.jdbc.http.GzipRequestInterceptor;
+import veil.hdp.hive.jdbc.http.AuthCookieCache;
+import veil.hdp.hive.jdbc.http.HttpAuthState;
+import veil.hdp.hive.jdbc.http.StreamingHttpTransport;
+import veil.hdp.hive.jdbc.http.WireMetricsInterceptor;
 import veil.hdp.hive.jdbc.security.http.BasicRequestInterceptor;
 import veil.hdp.hive.jdbc.security.http.KerberosRequestInterceptor;
 import veil.hdp.hive.jdbc.security.http.XsrfRequestInterceptor;
 import veil.hdp.hive.jdbc.thrift.HiveThriftException;
 
 import javax.net.ssl.SSLContext;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.security.*;
-import java.security.cert.CertificateException;
 import java.util.Properties;
 
 public final class HttpUtils {
@@ -61,21 +65,27 @@ public final class HttpUtils {
     private HttpUtils() {
     }
 
-    /*
-        todo: see if any of these optimizations can/should be applied
+    public static CloseableHttpClient buildClient(Properties properties) {
 
-        From Thrift THttpClient
+        if (HiveDriverProperty.HTTP_POOL_ENABLED.getBoolean(properties)) {
+            return buildClient(properties, buildPoolingConnectionManager(properties), false);
+        }
 
-        * When using HttpClient, the following configuration leads to 5-15%
-        * better performance than the HttpURLConnection implementation:
-        *
-        * http.protocol.version=HttpVersion.HTTP_1_1
-        * http.protocol.content-charset=UTF-8
-        * http.protocol.expect-continue=false
-        * http.connection.stalecheck=false
-     */
+        return buildClient(properties, new BasicHttpClientConnectionManager(buildConnectionSocketFactoryRegistry(properties)), false);
+    }
 
-    public static CloseableHttpClient buildClient(Properties properties) {
+    public static PoolingHttpClientConnectionManager buildPoolingConnectionManager(Properties properties) {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(buildConnectionSocketFactoryRegistry(properties));
+        cm.setMaxTotal(HiveDriverProperty.HTTP_POOL_MAX_TOTAL.getInt(properties));
+        cm.setDefaultMaxPerRoute(HiveDriverProperty.HTTP_POOL_MAX_PER_ROUTE.getInt(properties));
+
+        return cm;
+    }
+
+    /**
+     * @param shared true if the client will serve many connections; each request must then carry an {@link HttpAuthState} in its context
+     */
+    public static CloseableHttpClient buildClient(Properties properties, HttpClientConnectionManager cm, boolean shared) {
 
         AuthenticationMode authenticationMode = AuthenticationMode.valueOf(HiveDriverProperty.AUTHENTICATION_MODE.get(properties));
 
@@ -87,7 +97,7 @@ public final class HttpUtils {
                 httpRequestInterceptor = buildBasicInterceptor();
                 break;
             case KERBEROS:
-                httpRequestInterceptor = buildKerberosInterceptor(properties);
+                httpRequestInterceptor = shared ? new KerberosRequestInterceptor(null, null) : buildKerberosInterceptor(properties);
                 break;
         }
 
@@ -95,25 +105,56 @@ public final class HttpUtils {
             throw new HiveException("Authentication Mode [" + authenticationMode + "] is not supported when creating an HTTP Client!");
         }
 
-        Registry<ConnectionSocketFactory> registry = buildConnectionSocketFactoryRegistry(properties);
-
         HttpClientBuilder clientBuilder = HttpClients.custom();
 
-        if (HiveDriverProperty.HTTP_POOL_ENABLED.getBoolean(properties)) {
-            PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
-            cm.setMaxTotal(HiveDriverProperty.HTTP_POOL_MAX_TOTAL.getInt(properties));
-            cm.setDefaultMaxPerRoute(HiveDriverProperty.HTTP_POOL_MAX_PER_ROUTE.getInt(properties));
+        clientBuilder.setConnectionManager(cm);
 
-            clientBuilder.setConnectionManager(cm);
-        } else {
-            BasicHttpClientConnectionManager cm = new BasicHttpClientConnectionManager(registry);
+        if (shared) {
+            // the registry owns the connection manager and may outlive any one client close
+            clientBuilder.setConnectionManagerShared(true);
+        }
 
-            clientBuilder.setConnectionManager(cm);
+        boolean compressionEnabled = HiveDriverProperty.HTTP_COMPRESSION_ENABLED.getBoolean(properties);
+
+        /*
+            the settings Thrift's THttpClient recommends: no expect-continue round trip before each body and persistent HTTP/1.1 connections.
+            the stale connection check is left at the connection manager's default, which only validates connections idle for more than two
+            seconds; without it a connection the server has closed fails the next call and forces the whole session to be reestablished.
+            waiting for a pooled connection is bounded by the transport timeout so an exhausted pool fails the call instead of blocking it forever
+         */
+        clientBuilder.setDefaultRequestConfig(RequestConfig.custom()
+                .setExpectContinueEnabled(false)
+                .setConnectionRequestTimeout(HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.getInt(properties))
+                .setContentCompressionEnabled(compressionEnabled)
+                .build());
+
+        clientBuilder.setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE);
+        clientBuilder.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE);
+
+        if (!compressionEnabled) {
+            clientBuilder.disableContentCompression();
+        }
+
+        int requestCompressionThreshold = HiveDriverProperty.HTTP_REQUEST_COMPRESSION_THRESHOLD.getInt(properties);
+
+        // each addInterceptorFirst goes ahead of the previous one; requests see body metrics, auth, compression, then wire metrics last
+        if (requestCompressionThreshold > 0) {
+            clientBuilder.addInterceptorFirst(new GzipRequestInterceptor(requestCompressionThreshold));
         }
 
         clientBuilder.addInterceptorFirst(httpRequestInterceptor);
         clientBuilder.addInterceptorLast(new XsrfRequestInterceptor());
 
+        BodyMetricsInterceptor bodyMetrics = new BodyMetricsInterceptor();
+        WireMetricsInterceptor wireMetrics = new WireMetricsInterceptor();
+
+        clientBuilder.addInterceptorFirst((HttpRequestInterceptor) bodyMetrics);
+        clientBuilder.addInterceptorLast((HttpRequestInterceptor) wireMetrics);
+
+        // responses see wire metrics before decompression and body metrics after
+        clientBuilder.addInterceptorFirst((HttpResponseInterceptor) wireMetrics);
+        clientBuilder.addInterceptorLast((HttpResponseInterceptor) bodyMetrics);
+
         return clientBuilder.build();
     }
 
@@ -147,59 +188,21 @@ public final class HttpUtils {
 
     private static SSLConnectionSocketFactory buildOneWaySSLSocketFactory(Properties properties) {
 
-        try {
-            char[] trustStorePassword = HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties).toCharArray();
-
-            KeyStore trustStore = buildKeyStore(HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), trustStorePassword);
-
-            SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
+        SSLContext sslContext = SslContextUtils.getSSLContext(
+                HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties),
+                null, null, null);
 
-            return new SSLConnectionSocketFactory(sslContext);
-
-        } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
-            throw new HiveException(e);
-        }
+        return new SSLConnectionSocketFactory(sslContext);
     }
 
 
     private static SSLConnectionSocketFactory buildTwoWaySSLSocketFactory(Properties properties) {
 
-        try {
-            char[] trustStorePassword = HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties).toCharArray();
-
-            KeyStore trustStore = buildKeyStore(HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), trustStorePassword);
-
-            char[] keystorePassword = HiveDriverProperty.SSL_KEY_STORE_PASSWORD.get(properties).toCharArray();
-
-            KeyStore keyStore = buildKeyStore(HiveDriverProperty.SSL_KEY_STORE_PATH.get(properties), HiveDriverProperty.SSL_KEY_STORE_TYPE.get(properties), keystorePassword);
-
-            SSLContext sslContext = SSLContexts.custom().loadKeyMaterial(keyStore, keystorePassword).loadTrustMaterial(trustStore, null).build();
+        SSLContext sslContext = SslContextUtils.getSSLContext(
+                HiveDriverProperty.SSL_TRUST_STORE_PATH.get(properties), HiveDriverProperty.SSL_TRUST_STORE_TYPE.get(properties), HiveDriverProperty.SSL_TRUST_STORE_PASSWORD.get(properties),
+                HiveDriverProperty.SSL_KEY_STORE_PATH.get(properties), HiveDriverProperty.SSL_KEY_STORE_TYPE.get(properties), HiveDriverProperty.SSL_KEY_STORE_PASSWORD.get(properties));
 
-            return new SSLConnectionSocketFactory(sslContext);
-
-        } catch (NoSuchAlgorithmException | KeyManagementException | UnrecoverableKeyException | KeyStoreException e) {
-            throw new HiveException(e);
-        }
-    }
-
-    private static KeyStore buildKeyStore(String path, String type, char[] password) {
-
-        if (StringUtils.isBlank(path)) {
-            throw new IllegalArgumentException("keystore path is null!");
-        }
-
-        try {
-
-            KeyStore keyStore = KeyStore.getInstance(type);
-
-            try (FileInputStream fis = new FileInputStream(path)) {
-                keyStore.load(fis, password);
-            }
-
-            return keyStore;
-        } catch (CertificateException | IOException | NoSuchAlgorithmException | KeyStoreException e) {
-            throw new HiveException(e);
-        }
+        return new SSLConnectionSocketFactory(sslContext);
     }
 
 
@@ -212,7 +215,7 @@ public final class HttpUtils {
         CookieStore cookieStore = null;
 
         if (isCookieReplayEnabled) {
-            cookieStore = new BasicCookieStore();
+            cookieStore = AuthCookieCache.getCookieStore(properties);
         }
 
         return new KerberosRequestInterceptor(properties, cookieStore);
@@ -222,19 +225,32 @@ public final class HttpUtils {
         return new BasicRequestInterceptor();
     }
 
-    public static TTransport createHttpTransport(Properties properties, CloseableHttpClient httpClient) {
-        String host = HiveDriverProperty.HOST_NAME.get(properties);
-        int port = HiveDriverProperty.PORT_NUMBER.getInt(properties);
-        boolean sslEnabled = HiveDriverProperty.SSL_ENABLED.getBoolean(properties);
-        String endpoint = HiveDriverProperty.HTTP_ENDPOINT.get(properties);
+    /**
+     * @param authState the connection's authentication state when the client is shared, otherwise null
+     */
+    public static TTransport createHttpTransport(Properties properties, CloseableHttpClient httpClient, HttpAuthState authState) {
+        String url = buildUrl(properties);
 
-        String scheme = sslEnabled ? HTTPS : HTTP;
+        if (HiveDriverProperty.HTTP_STREAMING_ENABLED.getBoolean(properties)) {
+            return new StreamingHttpTransport(url, httpClient, HiveDriverProperty.HTTP_BUFFER_SIZE.getInt(properties), authState);
+        }
 
         try {
-            return new THttpClient(scheme + "://" + host + ':' + port + '/' + endpoint, httpClient);
+            return new THttpClient(url, httpClient);
         } catch (TTransportException e) {
             throw new HiveThriftException(e);
         }
 
     }
+
+    public static String buildUrl(Properties properties) {
+        String host = HiveDriverProperty.HOST_NAME.get(properties);
+        int port = HiveDriverProperty.PORT_NUMBER.getInt(properties);
+        boolean sslEnabled = HiveDriverProperty.SSL_ENABLED.getBoolean(properties);
+        String endpoint = HiveDriverProperty.HTTP_ENDPOINT.get(properties);
+
+        String scheme = sslEnabled ? HTTPS : HTTP;
+
+        return scheme + "://" + host + ':' + port + '/' + endpoint;
+    }
 }
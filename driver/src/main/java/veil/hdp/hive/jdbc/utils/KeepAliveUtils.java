@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pings open sessions at a fixed interval on a single timer thread shared by every connection, so neither a firewall nor HS2's
+ * {@code hive.server2.idle.session.timeout} closes a session that is merely idle.  Pings run on a separate pool so a slow server never delays
+ * the pings of other sessions.
+ */
+public final class KeepAliveUtils {
+
+    private static final Logger log = LogManager.getLogger(KeepAliveUtils.class);
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-keepalive-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService PINGS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "hive-keepalive-ping-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private KeepAliveUtils() {
+    }
+
+    /**
+     * Starts pinging the session every {@code interval} milliseconds.  Only a weak reference to the session is held; pinging stops by itself if
+     * the session is closed or garbage collected.
+     *
+     * @return the scheduled task, which should be cancelled when the session is closed
+     */
+    public static ScheduledFuture<?> schedule(ThriftSession session, long interval) {
+        KeepAlive keepAlive = new KeepAlive(session, interval);
+
+        keepAlive.future = TIMER.scheduleWithFixedDelay(keepAlive, interval, interval, TimeUnit.MILLISECONDS);
+
+        return keepAlive.future;
+    }
+
+    private static class KeepAlive implements Runnable {
+
+        private final WeakReference<ThriftSession> sessionReference;
+        private final long interval;
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> future;
+
+        KeepAlive(ThriftSession session, long interval) {
+            this.sessionReference = new WeakReference<>(session);
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            ThriftSession session = sessionReference.get();
+
+            if (session == null || session.isClosed()) {
+                future.cancel(false);
+                return;
+            }
+
+            // a ping still waiting on a slow server is enough
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+
+            PINGS.execute(() -> {
+                try {
+                    // idle transports are handed out in turn, so successive pings visit each of them; busy transports need no help
+                    if (!ThriftUtils.ping(session, WatchdogUtils.deadline(interval, TimeUnit.MILLISECONDS))) {
+                        log.debug("keepalive ping failed");
+                    }
+                } finally {
+                    running.set(false);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveDriverProperty;
+import veil.hdp.hive.jdbc.bindings.TProtocolVersion;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers, for every server the JVM has connected to, the protocol version {@code OpenSession} last succeeded with.  Older servers reject newer
+ * protocol versions, and each rejected version costs a full transport handshake; with the version cached, later connections ask for a version the
+ * server accepts on the first attempt.
+ */
+public final class ProtocolVersionUtils {
+
+    private static final Logger log = LogManager.getLogger(ProtocolVersionUtils.class);
+
+    private static final ConcurrentMap<String, CachedVersion> VERSIONS = new ConcurrentHashMap<>();
+
+    private ProtocolVersionUtils() {
+    }
+
+    /**
+     * @return the protocol version to request first: the cached version for the server, if there is an unexpired one lower than the configured
+     * version, otherwise the configured version
+     */
+    public static int getInitialVersion(Properties properties) {
+        int configured = HiveDriverProperty.THRIFT_PROTOCOL_VERSION.getInt(properties);
+
+        if (!isEnabled(properties)) {
+            return configured;
+        }
+
+        String key = key(properties);
+
+        CachedVersion cached = VERSIONS.get(key);
+
+        if (cached == null) {
+            return configured;
+        }
+
+        if (WatchdogUtils.isPast(cached.expires)) {
+            VERSIONS.remove(key, cached);
+            return configured;
+        }
+
+        return Math.min(configured, cached.version.getValue());
+    }
+
+    /**
+     * Records the version {@code OpenSession} succeeded with.
+     */
+    public static void put(Properties properties, TProtocolVersion version) {
+        if (!isEnabled(properties)) {
+            return;
+        }
+
+        long ttl = HiveDriverProperty.PROTOCOL_VERSION_CACHE_TTL.getInt(properties);
+
+        VERSIONS.put(key(properties), new CachedVersion(version, WatchdogUtils.deadline(ttl, TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * Forgets the cached version for the server, so the next connection negotiates from the configured version again.
+     */
+    public static void invalidate(Properties properties) {
+        if (VERSIONS.remove(key(properties)) != null) {
+            log.debug("invalidated cached protocol version for {}", key(properties));
+        }
+    }
+
+    private static boolean isEnabled(Properties properties) {
+        return HiveDriverProperty.PROTOCOL_VERSION_CACHE_TTL.getInt(properties) > 0;
+    }
+
+    private static String key(Properties properties) {
+        return HiveDriverProperty.HOST_NAME.get(properties) + ':' + HiveDriverProperty.PORT_NUMBER.get(properties) + ':' + HiveDriverProperty.TRANSPORT_MODE.get(properties);
+    }
+
+    private static class CachedVersion {
+
+        private final TProtocolVersion version;
+        private final long expires;
+
+        CachedVersion(TProtocolVersion version, long expires) {
+            this.version = version;
+            this.expires = expires;
+        }
+    }
+}
@@ -20,17 +20,26 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.*;
 import veil.hdp.hive.jdbc.metadata.Schema;
+import veil.hdp.hive.jdbc.thrift.SessionState;
 import veil.hdp.hive.jdbc.thrift.ThriftOperation;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public final class QueryUtils {
 
     private static final Logger log = LogManager.getLogger(QueryUtils.class);
 
+    private static final Pattern USE_PATTERN = Pattern.compile("^\\s*USE\\s+`?([\\w]+)`?\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SET_PATTERN = Pattern.compile("^\\s*SET\\s+([^\\s=]+)\\s*=", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ADD_RESOURCE_PATTERN = Pattern.compile("^\\s*ADD\\s+(JARS?|FILES?|ARCHIVES?)\\s+(.+?)\\s*;?\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TEMPORARY_FUNCTION_PATTERN = Pattern.compile("^\\s*CREATE\\s+TEMPORARY\\s+(FUNCTION|MACRO)\\s+([\\w.`]+)", Pattern.CASE_INSENSITIVE);
+
     private QueryUtils() {
     }
 
@@ -182,6 +191,96 @@ public final class QueryUtils {
         return schema;
     }
 
+    /**
+     * @return the database named by a {@code USE} statement or null if the sql is not a {@code USE} statement
+     */
+    public static String parseUseDatabase(String sql) {
+        Matcher matcher = USE_PATTERN.matcher(sql);
+
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return the configuration key changed by a {@code SET key=value} statement or null if the sql is not one
+     */
+    public static String parseSetKey(String sql) {
+        Matcher matcher = SET_PATTERN.matcher(sql);
+
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return true if the sql changes the session in a way {@link #recordSessionChange(ThriftSession, String)} or
+     * {@link #recordOriginalSetting(HiveConnection, String)} records: {@code USE}, {@code SET}, {@code ADD} resources or temporary functions and macros
+     */
+    public static boolean changesSession(String sql) {
+        return USE_PATTERN.matcher(sql).find() || SET_PATTERN.matcher(sql).find() || ADD_RESOURCE_PATTERN.matcher(sql).find() || TEMPORARY_FUNCTION_PATTERN.matcher(sql).find();
+    }
+
+    /**
+     * Records the value a configuration key has before a {@code SET} statement changes it for the first time, so
+     * {@link ThriftSession#reset()} can restore it.  Must be called before the statement is executed.
+     */
+    public static void recordOriginalSetting(HiveConnection connection, String sql) throws SQLException {
+        String key = parseSetKey(sql);
+
+        if (key == null) {
+            return;
+        }
+
+        SessionState state = connection.getThriftSession().getState();
+
+        if (state.isSettingRecorded(key)) {
+            return;
+        }
+
+        String value = null;
+
+        // HS2 answers "key=value" or "key is undefined"
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SET " + key)) {
+            if (resultSet.next()) {
+                String row = resultSet.getString(1);
+
+                if (row != null && row.startsWith(key + '=')) {
+                    value = row.substring(key.length() + 1);
+                }
+            }
+        }
+
+        state.recordSetting(key, value);
+    }
+
+    /**
+     * Records the change a successfully executed statement made to the session: the current database, added resources and temporary
+     * functions or macros.
+     */
+    public static void recordSessionChange(ThriftSession session, String sql) {
+        String database = parseUseDatabase(sql);
+
+        if (database != null) {
+            session.setDatabase(database);
+            return;
+        }
+
+        Matcher matcher = ADD_RESOURCE_PATTERN.matcher(sql);
+
+        if (matcher.find()) {
+            session.getState().recordResource(matcher.group(1), matcher.group(2));
+            return;
+        }
+
+        matcher = TEMPORARY_FUNCTION_PATTERN.matcher(sql);
+
+        if (matcher.find()) {
+            if ("FUNCTION".equalsIgnoreCase(matcher.group(1))) {
+                session.getState().recordFunction(matcher.group(2));
+            } else {
+                session.getState().recordMacro(matcher.group(2));
+            }
+        }
+    }
+
     public static void setDatabaseSchema(HiveConnection connection, String schema) throws SQLException {
         try (Statement statement = connection.createStatement()) {
             statement.executeUpdate("USE " + schema);
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import veil.hdp.hive.jdbc.HiveException;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds each distinct {@link SSLContext} once per JVM rather than once per connection.  Besides skipping the key store reads, reusing a context
+ * reuses its client session cache, so a reconnect to the same server resumes the previous TLS session with an abbreviated handshake.  Contexts are
+ * keyed by store path and type and remember the modification times they were built from; replacing a store on disk rebuilds that entry for the next
+ * connection rather than adding another.
+ */
+public final class SslContextUtils {
+
+    private static final Logger log = LogManager.getLogger(SslContextUtils.class);
+
+    private static final ConcurrentMap<String, CachedContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private SslContextUtils() {
+    }
+
+    /**
+     * @param keyStorePath null for a context that only verifies the server
+     */
+    public static SSLContext getSSLContext(String trustStorePath, String trustStoreType, String trustStorePassword, String keyStorePath, String keyStoreType, String keyStorePassword) {
+
+        String key = key(trustStorePath, trustStoreType, trustStorePassword) + '|' + (keyStorePath == null ? "" : key(keyStorePath, keyStoreType, keyStorePassword));
+
+        long trustStoreModified = lastModified(trustStorePath);
+        long keyStoreModified = lastModified(keyStorePath);
+
+        return CONTEXTS.compute(key, (k, cached) -> {
+            if (cached != null && cached.trustStoreModified == trustStoreModified && cached.keyStoreModified == keyStoreModified) {
+                return cached;
+            }
+
+            log.debug("building ssl context for trust store [{}] and key store [{}]", trustStorePath, keyStorePath);
+
+            SSLContext context = buildSSLContext(trustStorePath, trustStoreType, trustStorePassword, keyStorePath, keyStoreType, keyStorePassword);
+
+            return new CachedContext(context, trustStoreModified, keyStoreModified);
+        }).context;
+    }
+
+    /**
+     * @return a string that changes whenever the store would load different material: its path, type, modification time and password
+     */
+    public static String getStoreIdentity(String path, String type, String password) {
+        return path == null ? "" : key(path, type, password) + ':' + lastModified(path);
+    }
+
+    private static SSLContext buildSSLContext(String trustStorePath, String trustStoreType, String trustStorePassword, String keyStorePath, String keyStoreType, String keyStorePassword) {
+        try {
+            SSLContextBuilder builder = SSLContexts.custom();
+
+            if (keyStorePath != null) {
+                char[] password = keyStorePassword.toCharArray();
+
+                builder.loadKeyMaterial(buildKeyStore(keyStorePath, keyStoreType, password), password);
+            }
+
+            return builder.loadTrustMaterial(buildKeyStore(trustStorePath, trustStoreType, trustStorePassword.toCharArray()), null).build();
+
+        } catch (NoSuchAlgorithmException | KeyManagementException | UnrecoverableKeyException | KeyStoreException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    private static KeyStore buildKeyStore(String path, String type, char[] password) {
+
+        if (StringUtils.isBlank(path)) {
+            throw new IllegalArgumentException("keystore path is null!");
+        }
+
+        try {
+
+            KeyStore keyStore = KeyStore.getInstance(type);
+
+            try (FileInputStream fis = new FileInputStream(path)) {
+                keyStore.load(fis, password);
+            }
+
+            return keyStore;
+        } catch (CertificateException | IOException | NoSuchAlgorithmException | KeyStoreException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    // the password is part of the key only as a hash, so it is not kept in another place in memory
+    private static String key(String path, String type, String password) {
+        return path + ':' + type + ':' + (password == null ? 0 : password.hashCode());
+    }
+
+    private static long lastModified(String path) {
+        return path == null ? 0 : new File(path).lastModified();
+    }
+
+    private static class CachedContext {
+        private final SSLContext context;
+        private final long trustStoreModified;
+        private final long keyStoreModified;
+
+        CachedContext(SSLContext context, long trustStoreModified, long keyStoreModified) {
+            this.context = context;
+            this.trustStoreModified = trustStoreModified;
+            this.keyStoreModified = keyStoreModified;
+        }
+    }
+}
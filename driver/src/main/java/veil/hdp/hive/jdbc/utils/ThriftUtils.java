@@ -19,25 +19,35 @@ package veil.hdp.hive.jdbc.utils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
-import veil.hdp.hive.jdbc.ClientInvocationHandler;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.HiveRetriableException;
+import veil.hdp.hive.jdbc.HiveTimeoutException;
+import veil.hdp.hive.jdbc.TransportMode;
+import veil.hdp.hive.jdbc.balancer.HostStats;
+import veil.hdp.hive.jdbc.balancer.HostStatsInterceptor;
 import veil.hdp.hive.jdbc.bindings.*;
 import veil.hdp.hive.jdbc.bindings.TCLIService.Client;
 import veil.hdp.hive.jdbc.data.ColumnBasedSet;
+import veil.hdp.hive.jdbc.metadata.Schema;
 import veil.hdp.hive.jdbc.thrift.*;
 
-import java.lang.reflect.Proxy;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public final class ThriftUtils {
@@ -47,42 +57,78 @@ public final class ThriftUtils {
     private static final short FETCH_TYPE_QUERY = 0;
     private static final short FETCH_TYPE_LOG = 1;
 
+    private static final String GET_RESULT_SET_METADATA = "GetResultSetMetadata";
+    private static final String FETCH_RESULTS = "FetchResults";
+
+    // in milliseconds; bounds a ping made without a deadline
+    private static final long DEFAULT_PING_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    // used only when pipelining over a sibling http transport; when saturated the caller simply runs the request itself
+    private static final ExecutorService PIPELINE_EXECUTOR = new ThreadPoolExecutor(0, 16, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread thread = new Thread(r, "pipelined-fetch-thread");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
     private ThriftUtils() {
     }
 
+    /**
+     * Opens the transport on the calling thread, so any Kerberos {@code Subject} the caller is running as stays in effect, while the watchdog closes
+     * the transport if it has not opened once the timeout passes.
+     */
     public static void openTransport(TTransport transport, int timeout) {
 
-        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "open-thrift-transport-thread"));
+        WatchdogUtils.Watch watch = WatchdogUtils.watch(WatchdogUtils.deadline(timeout, TimeUnit.MILLISECONDS), transport::close);
 
         try {
+            transport.open();
+        } catch (TTransportException | RuntimeException e) {
+            if (watch.isExpired()) {
+                throw new HiveException("The Thrift Transport did not open prior to Timeout.  If using Kerberos, double check that you have a valid client Principal by running klist.", e);
+            }
 
-            Future future = executor.submit(() -> {
-                try {
-                    transport.open();
-                } catch (TTransportException e) {
-                    throw new HiveException(e);
-                }
-            });
-
-            future.get(timeout, TimeUnit.MILLISECONDS);
-
-        } catch (InterruptedException | ExecutionException e) {
-            throw new HiveException(e);
-        } catch (TimeoutException e) {
-            throw new HiveException("The Thrift Transport did not open prior to Timeout.  If using Kerberos, double check that you have a valid client Principal by running klist.", e);
+            throw e instanceof HiveException ? (HiveException) e : new HiveException(e);
         } finally {
-            executor.shutdown();
+            watch.close();
         }
 
+        if (watch.isExpired()) {
+            // opened just as the deadline passed; the close may have raced ahead of the open
+            transport.close();
+
+            throw new HiveException("The Thrift Transport did not open prior to Timeout.  If using Kerberos, double check that you have a valid client Principal by running klist.");
+        }
     }
 
 
-    public static TCLIService.Iface createClient(ThriftTransport transport) {
+    public static TCLIService.Iface createClient(ThriftTransport transport, Properties properties) {
         TCLIService.Iface client = new Client(new TBinaryProtocol(transport.getTransport()));
 
-        return (TCLIService.Iface) Proxy.newProxyInstance(ThriftUtils.class.getClassLoader(), new Class[]{TCLIService.Iface.class}, new ClientInvocationHandler(client));
+        return new InterceptingClient(client, transport.getTransport(), transport.getLock(), buildInterceptorChain(properties));
+    }
+
+    /**
+     * Creates a client that borrows a transport from the pool for each call, so calls from different threads only wait on each other once every
+     * transport in the pool is busy.
+     */
+    public static TCLIService.Iface createPooledClient(ThriftTransportPool pool) {
+        return new PooledClient(pool);
     }
 
+    private static InterceptorChain buildInterceptorChain(Properties properties) {
+        InterceptorChain.InterceptorChainBuilder builder = InterceptorChain.builder();
+
+        if (HostSelectionUtils.isTrackingEnabled(properties)) {
+            builder.add(new HostStatsInterceptor(HostStats.forHost(HiveDriverProperty.HOST_NAME.get(properties), HiveDriverProperty.PORT_NUMBER.getInt(properties))));
+        }
+
+        if (TimingInterceptor.isEnabled()) {
+            builder.add(new TimingInterceptor());
+        }
+
+        return builder.build();
+    }
 
     public static TOpenSessionResp openSession(Properties properties, TCLIService.Iface client, TProtocolVersion protocolVersion) throws InvalidProtocolException {
 
@@ -124,6 +170,13 @@ public final class ThriftUtils {
 
         openSessionConfig.put("use:database", HiveDriverProperty.DATABASE_NAME.get(properties));
 
+        String proxyUser = HiveDriverProperty.PROXY_USER.get(properties);
+
+        // read by HS2 from the raw session configuration, not as a hiveconf override
+        if (proxyUser != null) {
+            openSessionConfig.put("hive.server2.proxy.user", proxyUser);
+        }
+
         return openSessionConfig;
     }
 
@@ -179,11 +232,15 @@ public final class ThriftUtils {
     }
 
     public static void cancelOperation(ThriftOperation operation) {
-        TCancelOperationReq cancelRequest = new TCancelOperationReq(operation.getOperationHandle());
+        cancelOperation(operation.getSession(), operation.getOperationHandle());
+    }
+
+    public static void cancelOperation(ThriftSession session, TOperationHandle handle) {
+        TCancelOperationReq cancelRequest = new TCancelOperationReq(handle);
 
         TCancelOperationResp resp = null;
 
-        TCLIService.Iface client = operation.getSession().getClient();
+        TCLIService.Iface client = session.getClient();
 
         try {
             resp = client.CancelOperation(cancelRequest);
@@ -207,13 +264,10 @@ public final class ThriftUtils {
 
         TGetCatalogsResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetCatalogs(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetCatalogs(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -231,13 +285,10 @@ public final class ThriftUtils {
 
         TGetColumnsResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetColumns(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetColumns(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -254,13 +305,10 @@ public final class ThriftUtils {
 
         TGetFunctionsResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetFunctions(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetFunctions(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -282,13 +330,10 @@ public final class ThriftUtils {
 
         TGetTablesResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetTables(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetTables(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -302,13 +347,10 @@ public final class ThriftUtils {
 
         TGetTypeInfoResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetTypeInfo(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetTypeInfo(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -317,23 +359,104 @@ public final class ThriftUtils {
 
     }
 
+    public static String getDelegationToken(ThriftSession session, String owner, String renewer) {
+        TGetDelegationTokenReq req = new TGetDelegationTokenReq(session.getSessionHandle(), owner, renewer);
+
+        TGetDelegationTokenResp resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetDelegationToken(req);
+        });
+
+        checkStatus(resp.getStatus());
+
+        return resp.getDelegationToken();
+    }
+
+    public static void renewDelegationToken(ThriftSession session, String token) {
+        TRenewDelegationTokenReq req = new TRenewDelegationTokenReq(session.getSessionHandle(), token);
+
+        TRenewDelegationTokenResp resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.RenewDelegationToken(req);
+        });
+
+        checkStatus(resp.getStatus());
+    }
+
     public static TGetInfoValue getServerInfo(ThriftSession session, TGetInfoType type) {
         TGetInfoReq req = new TGetInfoReq(session.getSessionHandle(), type);
 
         TGetInfoResp resp;
 
-        TCLIService.Iface client = session.getClient();
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetInfo(req);
+        });
+
+        checkStatus(resp.getStatus());
+
+        return resp.getInfoValue();
+
+    }
+
+    /**
+     * Makes a {@code GetInfo} round trip on the session's primary transport, without reconnecting or opening a transport, to prove that both the
+     * transport and the session are still alive on the server.  A transport that does not answer before the deadline is closed.
+     *
+     * @param deadline absolute deadline in {@link System#nanoTime()} terms or {@link ThriftOperation#NO_DEADLINE} for a default of
+     *                 {@link #DEFAULT_PING_TIMEOUT} ms
+     * @return true if HS2 answered successfully before the deadline; if the transport stays busy until the deadline the session's local state is
+     * reported instead, as the in-flight call is already bounded by its own timeouts
+     */
+    public static boolean ping(ThriftSession session, long deadline) {
+        ThriftTransportPool pool = session.getTransportPool();
+        ThriftTransport transport = session.getThriftTransport();
+        TSessionHandle handle = session.getSessionHandle();
+
+        if (pool == null || transport == null || handle == null || !transport.isValid()) {
+            return false;
+        }
+
+        long effectiveDeadline = deadline == ThriftOperation.NO_DEADLINE ? WatchdogUtils.deadline(DEFAULT_PING_TIMEOUT, TimeUnit.MILLISECONDS) : deadline;
+
+        ReentrantLock lock = transport.getLock();
 
         try {
-            resp = client.GetInfo(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
+            if (!lock.tryLock(Math.max(0, effectiveDeadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return session.isValid();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
 
-        checkStatus(resp.getStatus());
+        WatchdogUtils.Watch watch = WatchdogUtils.watch(effectiveDeadline, transport::close);
 
-        return resp.getInfoValue();
+        try {
+            // the lock is reentrant, so the client takes it again without waiting
+            TGetInfoResp resp = transport.getClient().GetInfo(new TGetInfoReq(handle, TGetInfoType.CLI_SERVER_NAME));
 
+            TStatusCode statusCode = resp.getStatus().getStatusCode();
+
+            return statusCode == TStatusCode.SUCCESS_STATUS || statusCode == TStatusCode.SUCCESS_WITH_INFO_STATUS;
+        } catch (TTransportException e) {
+            log.debug("ping failed: {}", e.getMessage());
+
+            pool.invalidate(transport);
+
+            return false;
+        } catch (TException | RuntimeException e) {
+            log.debug("ping failed: {}", e.getMessage());
+
+            if (watch.isExpired()) {
+                pool.invalidate(transport);
+            }
+
+            return false;
+        } finally {
+            watch.close();
+            lock.unlock();
+        }
     }
 
     static ThriftOperation getTableTypesOperation(ThriftSession session) {
@@ -341,13 +464,10 @@ public final class ThriftUtils {
 
         TGetTableTypesResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetTableTypes(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetTableTypes(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -362,13 +482,10 @@ public final class ThriftUtils {
 
         TGetSchemasResp resp;
 
-        TCLIService.Iface client = session.getClient();
-
-        try {
-            resp = client.GetSchemas(req);
-        } catch (TException e) {
-            throw new HiveThriftException(e);
-        }
+        resp = callWithReconnect(session, (client, handle) -> {
+            req.setSessionHandle(handle);
+            return client.GetSchemas(req);
+        });
 
         checkStatus(resp.getStatus());
 
@@ -377,6 +494,62 @@ public final class ThriftUtils {
 
     }
 
+    /*
+        calls that only read session scoped metadata are safe to repeat, so a transport failure reestablishes the session and the call is sent
+        again with the new session handle.  the delay between attempts doubles each time.
+     */
+    private static <T> T callWithReconnect(ThriftSession session, SessionCall<T> call) {
+
+        int maxAttempts = Math.max(0, HiveDriverProperty.RECONNECT_ATTEMPTS.getInt(session.getProperties()));
+        long backoff = HiveDriverProperty.RECONNECT_BACKOFF.getInt(session.getProperties());
+
+        for (int attempt = 0; ; attempt++) {
+
+            TSessionHandle handle = session.getSessionHandle();
+
+            try {
+                return call.call(session.getClient(), handle);
+            } catch (TTransportException e) {
+                if (attempt >= maxAttempts) {
+                    throw new HiveThriftException(e);
+                }
+
+                log.warn(MessageFormat.format("thrift transport exception: type [{0}]; reconnecting, attempt [{1}] of [{2}]", e.getType(), attempt + 1, maxAttempts), e);
+
+                try {
+                    Thread.sleep(backoff << Math.min(attempt, 10));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new HiveThriftException(e);
+                }
+
+                try {
+                    session.reconnect(handle);
+                } catch (RuntimeException re) {
+                    log.warn(re.getMessage(), re);
+                }
+            } catch (TException e) {
+                throw new HiveThriftException(e);
+            }
+        }
+    }
+
+    private static HiveRetriableException connectionLost(ThriftSession session, TSessionHandle handle, String message, TTransportException e) {
+        try {
+            session.reconnect(handle);
+        } catch (RuntimeException re) {
+            // the next call will try again
+            log.warn(re.getMessage(), re);
+        }
+
+        return new HiveRetriableException(message, e);
+    }
+
+    @FunctionalInterface
+    private interface SessionCall<T> {
+        T call(TCLIService.Iface client, TSessionHandle handle) throws TException;
+    }
+
     private static void checkStatus(TStatus status) {
 
         TStatusCode statusCode = status.getStatusCode();
@@ -422,7 +595,10 @@ public final class ThriftUtils {
         return fetchResults.getResults();
     }
 
-    public static ThriftOperation executeSql(ThriftSession session, String sql, long queryTimeout) {
+    /**
+     * Submits the statement with {@code runAsync} and returns as soon as HS2 accepts it; the caller is responsible for polling and closing the returned handle.
+     */
+    public static TOperationHandle submitStatement(ThriftSession session, String sql, long queryTimeout) {
         TExecuteStatementReq executeStatementReq = new TExecuteStatementReq(session.getSessionHandle(), StringUtils.trim(sql));
         executeStatementReq.setRunAsync(true);
         executeStatementReq.setQueryTimeout(queryTimeout);
@@ -435,13 +611,35 @@ public final class ThriftUtils {
 
         try {
             executeStatementResp = client.ExecuteStatement(executeStatementReq);
+        } catch (TTransportException e) {
+            // the statement may or may not have reached HS2; leave the decision to resend to the caller
+            throw connectionLost(session, executeStatementReq.getSessionHandle(), "statement could not be submitted", e);
         } catch (TException e) {
             throw new HiveThriftException(e);
         }
 
         checkStatus(executeStatementResp.getStatus());
 
-        TOperationHandle operationHandle = executeStatementResp.getOperationHandle();
+        return executeStatementResp.getOperationHandle();
+    }
+
+    /**
+     * Runs a statement that produces no results, such as {@code SET} or {@code USE}, and closes its operation.
+     */
+    public static void executeUpdate(ThriftSession session, String sql) {
+        TOperationHandle operationHandle = submitStatement(session, sql, 0);
+
+        try {
+            waitForStatementToComplete(session, operationHandle, WatchdogUtils.Watch.NONE);
+        } finally {
+            closeOperation(session, operationHandle);
+        }
+    }
+
+    public static ThriftOperation executeSql(ThriftSession session, String sql, long queryTimeout, int fetchSize) {
+        long deadline = queryTimeout > 0 ? WatchdogUtils.deadline(queryTimeout, TimeUnit.SECONDS) : ThriftOperation.NO_DEADLINE;
+
+        TOperationHandle operationHandle = submitStatement(session, sql, queryTimeout);
 
         /*
         if (HiveDriverProperty.FETCH_SERVER_LOGS.getBoolean(session.getProperties())) {
@@ -462,64 +660,333 @@ public final class ThriftUtils {
         }
         */
 
-        waitForStatementToComplete(session, operationHandle);
+        // older versions of HS2 ignore the query timeout in the request; cancel the operation ourselves once the deadline passes
+        WatchdogUtils.Watch watch = watchOperation(session, operationHandle, deadline);
+
+        try {
+            waitForStatementToComplete(session, operationHandle, watch);
+        } catch (RuntimeException e) {
+            if (watch.isExpired()) {
+                closeOperation(session, operationHandle);
+
+                throw new HiveTimeoutException(MessageFormat.format("query did not complete within the query timeout of [{0}] seconds", queryTimeout), e);
+            }
+
+            throw e;
+        } finally {
+            watch.close();
+        }
+
+        if (operationHandle.isSetHasResultSet() && operationHandle.isHasResultSet() && HiveDriverProperty.PIPELINED_FETCH_ENABLED.getBoolean(session.getProperties())) {
+            return buildPipelinedOperation(session, operationHandle, fetchSize, deadline);
+        }
 
         return ThriftOperation.builder()
                 .session(session)
                 .handle(operationHandle)
+                .deadline(deadline)
                 .build();
 
     }
 
-    private static void waitForStatementToComplete(ThriftSession session, TOperationHandle handle) {
-        boolean isComplete = false;
+    /**
+     * Retrieves the result set metadata and the first page of results without waiting for one response before sending the next request.  In binary mode both requests are written
+     * back-to-back on the transport and the responses are read in order.  In http mode, when pooling allows it, the metadata request is issued on a sibling transport while the fetch is issued
+     * on the session transport.  Either way each request passes through the interceptor chain like any other call; the raw binary exchange is never retried.
+     */
+    private static ThriftOperation buildPipelinedOperation(ThriftSession session, TOperationHandle handle, int fetchSize, long deadline) {
 
-        TGetOperationStatusReq statusReq = new TGetOperationStatusReq(handle);
+        TGetResultSetMetadataReq metadataReq = new TGetResultSetMetadataReq(handle);
 
-        while (!isComplete) {
+        TFetchResultsReq fetchReq = new TFetchResultsReq(handle, TFetchOrientation.FETCH_NEXT, fetchSize);
+        fetchReq.setFetchType(FETCH_TYPE_QUERY);
+
+        ThriftTransport thriftTransport = session.getThriftTransport();
+
+        TGetResultSetMetadataResp metadataResp;
+        TFetchResultsResp fetchResp;
+
+        if (thriftTransport.getMode() == TransportMode.binary) {
+
+            ThriftTransportPool pool = session.getTransportPool();
+
+            ThriftTransport borrowed = pool.borrow();
+
+            TCLIService.GetResultSetMetadata_result metadataResult = new TCLIService.GetResultSetMetadata_result();
+            TCLIService.FetchResults_result fetchResult = new TCLIService.FetchResults_result();
+
+            TCLIService.GetResultSetMetadata_args metadataArgs = new TCLIService.GetResultSetMetadata_args();
+            metadataArgs.setReq(metadataReq);
+
+            TCLIService.FetchResults_args fetchArgs = new TCLIService.FetchResults_args();
+            fetchArgs.setReq(fetchReq);
+
+            // the frames bypass the transport's client, so they are reported to the interceptors here
+            InterceptorChain chain = buildInterceptorChain(borrowed.getProperties());
+
+            ReentrantLock lock = borrowed.getLock();
+
+            lock.lock();
+
+            long metadataStart = chain.before(GET_RESULT_SET_METADATA);
+            long fetchStart = chain.before(FETCH_RESULTS);
+
+            boolean metadataRead = false;
+            boolean fetchRead = false;
+
+            try {
+                TProtocol protocol = new TBinaryProtocol(borrowed.getTransport());
+
+                writeMessage(protocol, GET_RESULT_SET_METADATA, metadataArgs, 1);
+                writeMessage(protocol, FETCH_RESULTS, fetchArgs, 2);
+
+                // both replies must be drained before reporting a failure, otherwise the transport is left with unread bytes
+                TException metadataError = readMessage(protocol, GET_RESULT_SET_METADATA, metadataResult);
+                metadataRead = true;
+                chain.after(GET_RESULT_SET_METADATA, metadataStart, metadataError);
+
+                TException fetchError = readMessage(protocol, FETCH_RESULTS, fetchResult);
+                fetchRead = true;
+                chain.after(FETCH_RESULTS, fetchStart, fetchError);
+
+                if (metadataError != null) {
+                    throw metadataError;
+                }
+
+                if (fetchError != null) {
+                    throw fetchError;
+                }
+            } catch (TApplicationException e) {
+                throw new HiveThriftException(e);
+            } catch (TException | RuntimeException e) {
+                if (!metadataRead) {
+                    chain.after(GET_RESULT_SET_METADATA, metadataStart, e);
+                }
+
+                if (!fetchRead) {
+                    chain.after(FETCH_RESULTS, fetchStart, e);
+                }
+
+                // the exchange broke off part way; whatever is left unread makes the transport unusable
+                pool.invalidate(borrowed);
+                borrowed = null;
+
+                if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                }
+
+                throw new HiveThriftException((TException) e);
+            } finally {
+                lock.unlock();
+
+                if (borrowed != null) {
+                    pool.release(borrowed);
+                }
+            }
+
+            metadataResp = metadataResult.getSuccess();
+            fetchResp = fetchResult.getSuccess();
+
+        } else if (thriftTransport.supportsSiblings()) {
+
+            Future<TGetResultSetMetadataResp> metadataFuture = PIPELINE_EXECUTOR.submit(() -> {
+
+                TTransport sibling = thriftTransport.openSibling();
+
+                try {
+                    TCLIService.Iface client = new InterceptingClient(new Client(new TBinaryProtocol(sibling)), sibling, new ReentrantLock(), buildInterceptorChain(thriftTransport.getProperties()));
+
+                    return client.GetResultSetMetadata(metadataReq);
+                } finally {
+                    sibling.close();
+                }
+            });
+
+            try {
+                fetchResp = session.getClient().FetchResults(fetchReq);
+
+                // without a query timeout the sibling call is no more bounded than the fetch on the session transport
+                if (deadline == ThriftOperation.NO_DEADLINE) {
+                    metadataResp = metadataFuture.get();
+                } else {
+                    metadataResp = metadataFuture.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (TException e) {
+                metadataFuture.cancel(true);
+                throw new HiveThriftException(e);
+            } catch (TimeoutException e) {
+                metadataFuture.cancel(true);
 
-            TGetOperationStatusResp statusResp;
+                // a request still waiting on the operation fails once it is closed
+                closeOperation(session, handle);
+
+                throw new HiveTimeoutException("query timeout expired while fetching result set metadata", e);
+            } catch (InterruptedException | ExecutionException e) {
+                throw new HiveException(e);
+            }
 
+        } else {
+            // nothing to overlap with; still hand back the first page so the result set doesn't need another trip
             TCLIService.Iface client = session.getClient();
 
             try {
-                statusResp = client.GetOperationStatus(statusReq);
+                metadataResp = client.GetResultSetMetadata(metadataReq);
+                fetchResp = client.FetchResults(fetchReq);
             } catch (TException e) {
                 throw new HiveThriftException(e);
             }
+        }
 
-            checkStatus(statusResp.getStatus());
-
-            if (statusResp.isSetOperationState()) {
-
-                switch (statusResp.getOperationState()) {
-                    case FINISHED_STATE:
-                        isComplete = true;
-                        break;
-                    case CLOSED_STATE:
-                    case CANCELED_STATE:
-                    case TIMEDOUT_STATE:
-                    case ERROR_STATE:
-                    case UKNOWN_STATE:
-                        throw new HiveThriftException(statusResp);
-                    case INITIALIZED_STATE:
-                    case PENDING_STATE:
-                    case RUNNING_STATE:
-                        break;
-                }
+        if (metadataResp == null || fetchResp == null) {
+            throw new HiveException("pipelined fetch did not return a result for [" + GET_RESULT_SET_METADATA + "] or [" + FETCH_RESULTS + ']');
+        }
+
+        checkStatus(metadataResp.getStatus());
+        checkStatus(fetchResp.getStatus());
+
+        Schema schema = Schema.builder().session(session).handle(handle).tableSchema(metadataResp.getSchema()).build();
+
+        return ThriftOperation.builder()
+                .session(session)
+                .handle(handle)
+                .schema(schema)
+                .prefetchedPage(convertToCBS(schema, fetchResp.getResults()))
+                .deadline(deadline)
+                .build();
+    }
+
+    private static void writeMessage(TProtocol protocol, String name, TBase<?, ?> args, int sequenceId) throws TException {
+        protocol.writeMessageBegin(new TMessage(name, TMessageType.CALL, sequenceId));
+        args.write(protocol);
+        protocol.writeMessageEnd();
+        protocol.getTransport().flush();
+    }
+
+    private static TException readMessage(TProtocol protocol, String name, TBase<?, ?> result) throws TException {
+        TMessage message = protocol.readMessageBegin();
+
+        if (message.type == TMessageType.EXCEPTION) {
+            TApplicationException exception = new TApplicationException();
+            exception.read(protocol);
+            protocol.readMessageEnd();
+
+            return exception;
+        }
+
+        result.read(protocol);
+        protocol.readMessageEnd();
+
+        if (!name.equals(message.name)) {
+            return new TApplicationException(TApplicationException.WRONG_METHOD_NAME, name + " failed: out of sequence response [" + message.name + ']');
+        }
+
+        return null;
+    }
+
+    private static void waitForStatementToComplete(ThriftSession session, TOperationHandle handle, WatchdogUtils.Watch watch) {
+        boolean isComplete = false;
+
+        while (!isComplete) {
+
+            // the cancel may not be honored by the server; stop polling regardless
+            if (watch.isExpired()) {
+                throw new HiveTimeoutException("operation was canceled because the query timeout expired");
             }
 
+            isComplete = isStatementComplete(session, handle);
+        }
+    }
 
+    private static WatchdogUtils.Watch watchOperation(ThriftSession session, TOperationHandle handle, long deadline) {
+        if (deadline == ThriftOperation.NO_DEADLINE) {
+            return WatchdogUtils.Watch.NONE;
         }
+
+        return WatchdogUtils.watch(deadline, () -> {
+            log.debug("query timeout expired; canceling operation {}", handle);
+
+            cancelOperation(session, handle);
+        });
+    }
+
+    /**
+     * Polls the status of the operation once.
+     *
+     * @return true if the operation has finished, false if it is still pending or running
+     * @throws HiveThriftException if the operation failed, was canceled, timed out or was closed
+     */
+    public static boolean isStatementComplete(ThriftSession session, TOperationHandle handle) {
+
+        TGetOperationStatusReq statusReq = new TGetOperationStatusReq(handle);
+
+        TGetOperationStatusResp statusResp;
+
+        TCLIService.Iface client = session.getClient();
+
+        // read before the call; once it fails another thread may already have reestablished the session
+        TSessionHandle sessionHandle = session.getSessionHandle();
+
+        try {
+            statusResp = client.GetOperationStatus(statusReq);
+        } catch (TTransportException e) {
+            throw connectionLost(session, sessionHandle, "lost track of running statement; it may still complete on the server", e);
+        } catch (TException e) {
+            throw new HiveThriftException(e);
+        }
+
+        checkStatus(statusResp.getStatus());
+
+        if (statusResp.isSetOperationState()) {
+
+            switch (statusResp.getOperationState()) {
+                case FINISHED_STATE:
+                    return true;
+                case CLOSED_STATE:
+                case CANCELED_STATE:
+                case TIMEDOUT_STATE:
+                case ERROR_STATE:
+                case UKNOWN_STATE:
+                    throw new HiveThriftException(statusResp);
+                case INITIALIZED_STATE:
+                case PENDING_STATE:
+                case RUNNING_STATE:
+                    break;
+            }
+        }
+
+        return false;
     }
 
     public static ColumnBasedSet fetchResults(ThriftOperation operation, TFetchOrientation orientation, int fetchSize) {
         TFetchResultsReq fetchReq = new TFetchResultsReq(operation.getOperationHandle(), orientation, fetchSize);
         fetchReq.setFetchType(FETCH_TYPE_QUERY);
 
-        TRowSet tRowSet = getRowSet(operation, fetchReq);
+        long deadline = operation.getDeadline();
+
+        if (deadline != ThriftOperation.NO_DEADLINE && WatchdogUtils.isPast(deadline)) {
+            cancelOperation(operation);
+
+            throw new HiveTimeoutException("query timeout expired while fetching results");
+        }
+
+        TRowSet tRowSet;
+
+        // a cancel issued during the fetch waits for the transport, so the fetch in progress completes but the operation will not return another page
+        WatchdogUtils.Watch watch = watchOperation(operation.getSession(), operation.getOperationHandle(), deadline);
+
+        try {
+            tRowSet = getRowSet(operation, fetchReq);
+        } catch (RuntimeException e) {
+            if (watch.isExpired()) {
+                throw new HiveTimeoutException("query timeout expired while fetching results", e);
+            }
+
+            throw e;
+        } finally {
+            watch.close();
+        }
 
-        return convertToCBS(operation, tRowSet);
+        return convertToCBS(operation.getSchema(), tRowSet);
     }
 
     /*private static List<Row> fetchLogs(ThriftOperation operation, int fetchSize) {
@@ -532,10 +999,10 @@ public final class ThriftUtils {
 
     }*/
 
-    private static ColumnBasedSet convertToCBS(ThriftOperation operation, TRowSet rowSet) {
+    private static ColumnBasedSet convertToCBS(Schema schema, TRowSet rowSet) {
         if (rowSet != null && rowSet.isSetColumns()) {
             if (!rowSet.getColumns().isEmpty()) {
-                return ColumnBasedSet.builder().rowSet(rowSet).schema(operation.getSchema()).build();
+                return ColumnBasedSet.builder().rowSet(rowSet).schema(schema).build();
             }
         }
 
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks deadlines for every in-flight operation in the driver on a single timer thread.  When a deadline passes the expiry action is handed to a
+ * separate pool so that a slow action, such as a cancel waiting on a busy transport, never delays other deadlines.
+ */
+public final class WatchdogUtils {
+
+    private static final Logger log = LogManager.getLogger(WatchdogUtils.class);
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "hive-watchdog-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService ACTIONS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "hive-watchdog-action-thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // most watches are closed long before they expire; don't let them pile up in the queue
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private WatchdogUtils() {
+    }
+
+    /**
+     * Runs {@code onExpired} once the deadline passes unless the returned watch is closed first.
+     *
+     * @param deadline  absolute deadline in {@link System#nanoTime()} terms
+     * @param onExpired action to run on expiry
+     * @return the watch, which must be closed when the guarded work completes
+     */
+    public static Watch watch(long deadline, Runnable onExpired) {
+        Watch watch = new Watch(onExpired);
+
+        watch.future = TIMER.schedule(() -> ACTIONS.execute(watch::expire), Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+        return watch;
+    }
+
+    public static long deadline(long timeout, TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    public static boolean isPast(long deadline) {
+        return System.nanoTime() - deadline >= 0;
+    }
+
+    public static class Watch implements AutoCloseable {
+
+        public static final Watch NONE = new Watch(null);
+
+        private final Runnable onExpired;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile boolean expired;
+        private ScheduledFuture<?> future;
+
+        private Watch(Runnable onExpired) {
+            this.onExpired = onExpired;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        private void expire() {
+            if (finished.compareAndSet(false, true)) {
+                expired = true;
+
+                try {
+                    onExpired.run();
+                } catch (Exception e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (finished.compareAndSet(false, true) && future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc.utils;
+
+import com.google.common.base.Splitter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import veil.hdp.hive.jdbc.HiveException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The HiveServer2 instances registered under one namespace of one ZooKeeper quorum.  One Curator client per quorum and namespace stays open for
+ * the life of the JVM and keeps a child watch on the namespace, so looking up a server is a local read; the registrations are read again only
+ * when servers come or go, or after the client reconnects.
+ */
+final class ZookeeperDiscoveryCache implements CuratorWatcher {
+
+    private static final Logger log = LogManager.getLogger(ZookeeperDiscoveryCache.class);
+
+    private static final ConcurrentMap<String, ZookeeperDiscoveryCache> CACHES = new ConcurrentHashMap<>();
+
+    private final String path;
+    private final CuratorFramework client;
+
+    // znode name to the configuration the server published; replaced as a whole on every refresh
+    private volatile Map<String, Map<String, String>> servers = Collections.emptyMap();
+
+    private ZookeeperDiscoveryCache(String authority, String namespace, int retry) {
+        this.path = '/' + namespace;
+        this.client = CuratorFrameworkFactory.builder().connectString(authority).retryPolicy(new RetryOneTime(retry)).build();
+    }
+
+    static ZookeeperDiscoveryCache get(String authority, String namespace, int retry) {
+        String key = authority + '/' + namespace;
+
+        ZookeeperDiscoveryCache cache = CACHES.get(key);
+
+        if (cache != null) {
+            return cache;
+        }
+
+        synchronized (CACHES) {
+            cache = CACHES.get(key);
+
+            if (cache == null) {
+                cache = new ZookeeperDiscoveryCache(authority, namespace, retry);
+                cache.start();
+
+                CACHES.put(key, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * @return the configurations of the registered servers
+     */
+    List<Map<String, String>> getServers() {
+        return new ArrayList<>(servers.values());
+    }
+
+    private void start() {
+        client.start();
+
+        try {
+            refresh();
+        } catch (Exception e) {
+            client.close();
+
+            throw new HiveException(e);
+        }
+
+        client.getConnectionStateListenable().addListener((c, state) -> {
+            // watches set before a session expired are gone, and changes made while disconnected were never seen
+            if (state == ConnectionState.RECONNECTED) {
+                refreshQuietly();
+            }
+        });
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getType() == EventType.NodeChildrenChanged) {
+            refreshQuietly();
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("unable to refresh hive servers from zookeeper path [" + path + "]; keeping the last known servers", e);
+        }
+    }
+
+    private synchronized void refresh() throws Exception {
+        // passing the same watcher every time keeps zookeeper from registering it more than once
+        List<String> children = client.getChildren().usingWatcher(this).forPath(path);
+
+        Map<String, Map<String, String>> current = servers;
+        Map<String, Map<String, String>> updated = new HashMap<>(children.size());
+
+        for (String child : children) {
+            Map<String, String> config = current.get(child);
+
+            // registrations are ephemeral nodes that are never rewritten, so only new ones need to be read
+            if (config == null) {
+                try {
+                    String hostData = new String(client.getData().forPath(path + '/' + child), StandardCharsets.UTF_8);
+
+                    config = Splitter.on(";").trimResults().omitEmptyStrings().withKeyValueSeparator("=").split(hostData);
+                } catch (KeeperException.NoNodeException e) {
+                    log.debug("hive server [{}] went away while reading its registration", child);
+                    continue;
+                }
+            }
+
+            updated.put(child, config);
+        }
+
+        servers = Collections.unmodifiableMap(updated);
+
+        log.debug("[{}] hive servers registered under zookeeper path [{}]", updated.size(), path);
+    }
+}
@@ -26,13 +26,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import veil.hdp.hive.jdbc.HiveDriverProperty;
 import veil.hdp.hive.jdbc.HiveException;
+import veil.hdp.hive.jdbc.balancer.HostStats;
 
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 final class ZookeeperUtils {
 
@@ -43,7 +44,7 @@ final class ZookeeperUtils {
     }
 
 
-    static void loadPropertiesFromZookeeper(String authority, Properties properties) {
+    static void loadPropertiesFromZookeeper(String authority, Properties properties, HostStats excluded) {
 
         String zooKeeperNamespace = HiveDriverProperty.ZOOKEEPER_DISCOVERY_NAMESPACE.get(properties);
         int retry = HiveDriverProperty.ZOOKEEPER_DISCOVERY_RETRY.getInt(properties);
@@ -67,49 +68,70 @@ final class ZookeeperUtils {
          */
 
 
-        Random random = new Random();
+        Map<String, String> config;
 
-        try (CuratorFramework zooKeeperClient = CuratorFrameworkFactory.builder().connectString(authority).retryPolicy(new RetryOneTime(retry)).build()) {
-
-            zooKeeperClient.start();
+        if (HiveDriverProperty.ZOOKEEPER_DISCOVERY_CACHE_ENABLED.getBoolean(properties)) {
+            List<Map<String, String>> servers = ZookeeperDiscoveryCache.get(authority, zooKeeperNamespace, retry).getServers();
 
-            List<String> hosts = zooKeeperClient.getChildren().forPath('/' + zooKeeperNamespace);
-
-            String randomHost = hosts.get(random.nextInt(hosts.size()));
+            if (servers.isEmpty()) {
+                throw new HiveException("no hive servers are registered in zookeeper namespace [" + zooKeeperNamespace + ']');
+            }
 
-            String hostData = new String(zooKeeperClient.getData().forPath('/' + zooKeeperNamespace + '/' + randomHost), UTF_8);
+            int defaultPort = HiveDriverProperty.PORT_NUMBER.getInt(properties);
 
-            Map<String, String> config = Splitter.on(";").trimResults().omitEmptyStrings().withKeyValueSeparator("=").split(hostData);
+            config = HostSelectionUtils.select(properties, servers, server -> toHostStats(server, defaultPort), excluded);
+        } else {
+            config = readRandomServer(authority, zooKeeperNamespace, retry);
+        }
 
-            for (Entry<String, String> entry : config.entrySet()) {
-                String value = StringUtils.trimToNull(entry.getValue());
+        for (Entry<String, String> entry : config.entrySet()) {
+            String value = StringUtils.trimToNull(entry.getValue());
 
-                if (value != null) {
+            if (value != null) {
 
-                    String key = entry.getKey();
+                String key = entry.getKey();
 
-                    HiveDriverProperty hiveDriverProperty = HiveDriverProperty.forAlias(key);
+                HiveDriverProperty hiveDriverProperty = HiveDriverProperty.forAlias(key);
 
-                    if (hiveDriverProperty != null) {
+                if (hiveDriverProperty != null) {
 
-                        String originalValue = hiveDriverProperty.get(properties);
+                    String originalValue = hiveDriverProperty.get(properties);
 
-                        if (!value.equals(originalValue)) {
+                    if (!value.equals(originalValue)) {
 
-                            log.debug("updating existing property [{}] from zookeeper:  Old value [{}], New value [{}].  hive configuration parameter [{}].", hiveDriverProperty.getKey(), originalValue, value, key);
+                        log.debug("updating existing property [{}] from zookeeper:  Old value [{}], New value [{}].  hive configuration parameter [{}].", hiveDriverProperty.getKey(), originalValue, value, key);
 
-                            hiveDriverProperty.set(properties, value);
-                        }
-                    } else {
+                        hiveDriverProperty.set(properties, value);
+                    }
+                } else {
 
-                        log.warn("adding new property [{}] with value [{}] from zookeeper. this could likely be handled better by the driver.  possible bug!", key, value);
+                    log.warn("adding new property [{}] with value [{}] from zookeeper. this could likely be handled better by the driver.  possible bug!", key, value);
 
-                        properties.setProperty(key, value);
-                    }
+                    properties.setProperty(key, value);
                 }
             }
+        }
+    }
 
+    private static HostStats toHostStats(Map<String, String> server, int defaultPort) {
+        String host = server.get(HiveDriverProperty.HOST_NAME.getHiveConfigurationKey());
+        String port = server.get(HiveDriverProperty.PORT_NUMBER.getHiveConfigurationKey());
+
+        return HostStats.forHost(host, port != null ? Integer.parseInt(port.trim()) : defaultPort);
+    }
+
+    private static Map<String, String> readRandomServer(String authority, String zooKeeperNamespace, int retry) {
+        try (CuratorFramework zooKeeperClient = CuratorFrameworkFactory.builder().connectString(authority).retryPolicy(new RetryOneTime(retry)).build()) {
+
+            zooKeeperClient.start();
+
+            List<String> hosts = zooKeeperClient.getChildren().forPath('/' + zooKeeperNamespace);
+
+            String randomHost = hosts.get(ThreadLocalRandom.current().nextInt(hosts.size()));
+
+            String hostData = new String(zooKeeperClient.getData().forPath('/' + zooKeeperNamespace + '/' + randomHost), UTF_8);
 
+            return Splitter.on(";").trimResults().omitEmptyStrings().withKeyValueSeparator("=").split(hostData);
         } catch (Exception e) {
             throw new HiveException(e);
         }
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.utils.BatchUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchUtilsTest extends BaseTest {
+
+    @Test
+    public void isInsertValues() {
+        assertTrue(BatchUtils.isInsertValues("insert into test values (?, ?)"));
+        assertTrue(BatchUtils.isInsertValues("  INSERT INTO TABLE test PARTITION (p = 1) VALUES (?);"));
+
+        assertTrue(BatchUtils.isInsertValues("INSERT INTO sensor_values (a) VALUES (?)"));
+        assertTrue(BatchUtils.isInsertValues("insert into test (values_seen) values (?)"));
+
+        assertFalse(BatchUtils.isInsertValues("insert overwrite table test values (?)"));
+        assertFalse(BatchUtils.isInsertValues("insert into test select * from other"));
+        assertFalse(BatchUtils.isInsertValues("update test set a = ?"));
+        assertFalse(BatchUtils.isInsertValues(null));
+    }
+
+    @Test
+    public void findValuesList() {
+        String sql = "insert into test values (1, 'a')";
+        int start = BatchUtils.findValuesList(sql);
+
+        assertEquals("insert into test values ", sql.substring(0, start));
+        assertEquals("(1, 'a')", BatchUtils.getValuesList(sql, start));
+
+        sql = "insert into `values` values ('values (x)', 'it\\'s') ; ";
+        start = BatchUtils.findValuesList(sql);
+
+        assertEquals("insert into `values` values ", sql.substring(0, start));
+        assertEquals("('values (x)', 'it\\'s')", BatchUtils.getValuesList(sql, start));
+
+        sql = "INSERT INTO sensor_values (a) VALUES (?)";
+        start = BatchUtils.findValuesList(sql);
+
+        assertEquals("INSERT INTO sensor_values (a) VALUES ", sql.substring(0, start));
+
+        sql = "insert into test (values_seen, $values) values (?, ?)";
+        start = BatchUtils.findValuesList(sql);
+
+        assertEquals("insert into test (values_seen, $values) values ", sql.substring(0, start));
+        assertEquals("(?, ?)", BatchUtils.getValuesList(sql, start));
+
+        assertEquals(-1, BatchUtils.findValuesList("insert into test values"));
+        assertEquals(-1, BatchUtils.findValuesList("insert into test (a) select 1"));
+    }
+
+    @Test
+    public void utf8Length() {
+        assertEquals(0, BatchUtils.utf8Length(""));
+        assertEquals(3, BatchUtils.utf8Length("abc"));
+        assertEquals(2, BatchUtils.utf8Length("é"));
+        assertEquals(3, BatchUtils.utf8Length("€"));
+        assertEquals(4, BatchUtils.utf8Length("😀"));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.security.DelegationToken;
+import veil.hdp.hive.jdbc.test.BaseTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DelegationTokenTest extends BaseTest {
+
+    @Test
+    public void decode() throws IOException {
+        byte[] identifier = new byte[200];
+        Arrays.fill(identifier, (byte) 7);
+
+        byte[] password = "secret".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // lengths over 127 take a marker byte followed by the value
+            out.writeByte(-113);
+            out.writeByte(identifier.length);
+            out.write(identifier);
+            out.writeByte(password.length);
+            out.write(password);
+            // kind and service
+            byte[] kind = "HIVE_DELEGATION_TOKEN".getBytes(StandardCharsets.UTF_8);
+            out.writeByte(kind.length);
+            out.write(kind);
+            out.writeByte(0);
+        }
+
+        String encoded = Base64.encodeBase64URLSafeString(bytes.toByteArray());
+
+        DelegationToken token = DelegationToken.decode(encoded);
+
+        assertEquals(encoded, token.getEncoded());
+        assertEquals(Base64.encodeBase64String(identifier), token.getSaslUser());
+        assertArrayEquals(Base64.encodeBase64String(password).toCharArray(), token.getSaslPassword());
+    }
+}
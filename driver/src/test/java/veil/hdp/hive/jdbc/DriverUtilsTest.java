@@ -27,6 +27,9 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
 public class DriverUtilsTest extends BaseTest {
 
 
@@ -89,5 +92,17 @@ public class DriverUtilsTest extends BaseTest {
 
     }
 
+    @Test
+    public void proxyUserAlias() throws Exception {
+
+        Properties newProperties = DriverUtils.buildProperties(url + "&hive.server2.proxy.user=alice", suppliedProperties);
+
+        assertEquals("alice", HiveDriverProperty.PROXY_USER.get(newProperties));
+
+        // sent as the raw session configuration entry, not as a hiveconf override
+        assertNull(newProperties.getProperty("hive.server2.proxy.user"));
+
+    }
+
 
 }
\ No newline at end of file
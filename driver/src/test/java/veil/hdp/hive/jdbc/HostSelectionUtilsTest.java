@@ -0,0 +1,147 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.balancer.HostHealthTracker;
+import veil.hdp.hive.jdbc.balancer.HostStats;
+import veil.hdp.hive.jdbc.balancer.HostStatsInterceptor;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.utils.DriverUtils;
+import veil.hdp.hive.jdbc.utils.HostSelectionUtils;
+
+import java.net.ConnectException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HostSelectionUtilsTest extends BaseTest {
+
+    @Test
+    public void multiHostUrl() {
+        Properties properties = DriverUtils.buildProperties("jdbc:hive2://multi-a:10001,multi-b/test", new Properties());
+
+        String host = HiveDriverProperty.HOST_NAME.get(properties);
+        int port = HiveDriverProperty.PORT_NUMBER.getInt(properties);
+
+        assertTrue(("multi-a".equals(host) && port == 10001) || ("multi-b".equals(host) && port == 10000), host + ':' + port);
+    }
+
+    @Test
+    public void reselectHost() {
+        Properties supplied = new Properties();
+        HiveDriverProperty.CIRCUIT_BREAKER_FAILURES.set(supplied, 3);
+        HiveDriverProperty.CIRCUIT_BREAKER_PROBE_INTERVAL.set(supplied, 600000);
+
+        Properties properties = DriverUtils.buildProperties("jdbc:hive2://reselect-a:10000,reselect-b:10000/test", supplied);
+
+        HostStats down = HostStats.forHost("reselect-a", 10000);
+
+        for (int i = 0; i < HiveDriverProperty.CIRCUIT_BREAKER_FAILURES.getInt(properties); i++) {
+            HostHealthTracker.connectFailed(properties, down, new HiveException(new TTransportException(TTransportException.NOT_OPEN, new ConnectException("Connection refused"))));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("reselect-b", HiveDriverProperty.HOST_NAME.get(DriverUtils.selectHost(properties, null)));
+        }
+
+        Properties single = DriverUtils.buildProperties("jdbc:hive2://single:10000/test", new Properties());
+
+        assertSame(single, DriverUtils.selectHost(single, null));
+    }
+
+    @Test
+    public void latencyFromOpenSessionOnly() {
+        HostStats stats = HostStats.forHost("latency", 10000);
+        HostStatsInterceptor interceptor = new HostStatsInterceptor(stats);
+
+        interceptor.before("GetOperationStatus");
+        interceptor.after("GetOperationStatus", 60_000_000_000L, null);
+
+        assertEquals(0, stats.getLatencyEwma());
+        assertEquals(0, stats.getOutstanding());
+
+        interceptor.before("OpenSession");
+        interceptor.after("OpenSession", 1_000_000L, null);
+
+        assertEquals(1_000_000L, stats.getLatencyEwma());
+    }
+
+    @Test
+    public void leastOutstanding() {
+        Properties properties = new Properties();
+        HiveDriverProperty.HOST_SELECTION_POLICY.set(properties, HostSelectionUtils.LEAST_OUTSTANDING);
+
+        HostStatsInterceptor busy = new HostStatsInterceptor(HostStats.forHost("busy", 10000));
+        busy.before("ExecuteStatement");
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("idle", HostSelectionUtils.selectHost(properties, "busy:10000,idle:10000", null).getHost());
+            }
+        } finally {
+            busy.after("ExecuteStatement", 1000, null);
+        }
+    }
+
+    @Test
+    public void circuitBreaker() {
+        Properties properties = new Properties();
+        HiveDriverProperty.CIRCUIT_BREAKER_FAILURES.set(properties, 3);
+        HiveDriverProperty.CIRCUIT_BREAKER_PROBE_INTERVAL.set(properties, 600000);
+
+        HostStats down = HostStats.forHost("down", 10000);
+        HostStats rejecting = HostStats.forHost("rejecting", 10000);
+
+        for (int i = 0; i < HiveDriverProperty.CIRCUIT_BREAKER_FAILURES.getInt(properties); i++) {
+            HostHealthTracker.connectFailed(properties, down, new HiveException(new TTransportException(TTransportException.NOT_OPEN, new ConnectException("Connection refused"))));
+            HostHealthTracker.connectFailed(properties, rejecting, new HiveException(new TTransportException("Peer indicated failure: Error validating the login")));
+        }
+
+        assertTrue(down.isCircuitOpen());
+        assertFalse(rejecting.isCircuitOpen());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("up", HostSelectionUtils.selectHost(properties, "down:10000,up:10000", null).getHost());
+        }
+
+        HostHealthTracker.connectSucceeded(properties, down, 10);
+
+        assertFalse(down.isCircuitOpen());
+    }
+
+    @Test
+    public void circuitBreakerDisabledByDefault() {
+        Properties properties = new Properties();
+
+        HostStats host = HostStats.forHost("default-breaker", 10000);
+
+        for (int i = 0; i < 10; i++) {
+            HostHealthTracker.connectFailed(properties, host, new HiveException(new TTransportException(TTransportException.NOT_OPEN, new ConnectException("Connection refused"))));
+        }
+
+        HostHealthTracker.connectSucceeded(properties, host, 60000);
+
+        assertFalse(host.isCircuitOpen());
+        assertFalse(HostSelectionUtils.isTrackingEnabled(properties));
+    }
+}
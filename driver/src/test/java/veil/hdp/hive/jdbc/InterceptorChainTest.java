@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.bindings.TCLIService;
+import veil.hdp.hive.jdbc.bindings.TGetInfoReq;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.thrift.InterceptingClient;
+import veil.hdp.hive.jdbc.thrift.InterceptorChain;
+import veil.hdp.hive.jdbc.thrift.RpcInterceptor;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterceptorChainTest extends BaseTest {
+
+    @Test
+    public void empty() {
+        assertTrue(InterceptorChain.builder().build().isEmpty());
+        assertSame(InterceptorChain.EMPTY, InterceptorChain.builder().add(null).build());
+    }
+
+    @Test
+    public void order() {
+        List<String> calls = new ArrayList<>();
+
+        InterceptorChain chain = InterceptorChain.builder()
+                .add(new RecordingInterceptor("first", calls))
+                .add(new RecordingInterceptor("second", calls))
+                .build();
+
+        long start = chain.before("GetInfo");
+        chain.after("GetInfo", start, null);
+
+        assertEquals("[first before GetInfo, second before GetInfo, second after GetInfo, first after GetInfo]", calls.toString());
+    }
+
+    @Test
+    public void retry() {
+        InterceptorChain chain = InterceptorChain.builder()
+                .add(new RpcInterceptor() {
+                })
+                .add(new RpcInterceptor() {
+                    @Override
+                    public boolean shouldRetry(String method, Throwable error, int attempt) {
+                        return attempt < 3;
+                    }
+                })
+                .build();
+
+        RuntimeException error = new RuntimeException();
+
+        assertTrue(chain.shouldRetry("GetInfo", error, 1));
+        assertTrue(chain.shouldRetry("GetInfo", error, 2));
+        assertFalse(chain.shouldRetry("GetInfo", error, 3));
+    }
+
+    @Test
+    public void transportFailuresAreNotRetried() {
+        InterceptorChain chain = InterceptorChain.builder()
+                .add(new RpcInterceptor() {
+                    @Override
+                    public boolean shouldRetry(String method, Throwable error, int attempt) {
+                        return attempt < 3;
+                    }
+                })
+                .build();
+
+        AtomicInteger calls = new AtomicInteger();
+
+        InterceptingClient client = new InterceptingClient(failingClient(calls, new TTransportException(TTransportException.END_OF_FILE)), null, new ReentrantLock(), chain);
+
+        assertThrows(TTransportException.class, () -> client.GetInfo(new TGetInfoReq()));
+        assertEquals(1, calls.get());
+
+        calls.set(0);
+
+        InterceptingClient retrying = new InterceptingClient(failingClient(calls, new TApplicationException(TApplicationException.INTERNAL_ERROR)), null, new ReentrantLock(), chain);
+
+        assertThrows(TApplicationException.class, () -> retrying.GetInfo(new TGetInfoReq()));
+        assertEquals(3, calls.get());
+    }
+
+    private static TCLIService.Iface failingClient(AtomicInteger calls, TException error) {
+        return (TCLIService.Iface) Proxy.newProxyInstance(TCLIService.Iface.class.getClassLoader(), new Class<?>[]{TCLIService.Iface.class}, (proxy, method, args) -> {
+            calls.incrementAndGet();
+
+            throw error;
+        });
+    }
+
+    private static class RecordingInterceptor implements RpcInterceptor {
+
+        private final String name;
+        private final List<String> calls;
+
+        RecordingInterceptor(String name, List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        @Override
+        public void before(String method) {
+            calls.add(name + " before " + method);
+        }
+
+        @Override
+        public void after(String method, long elapsedNanos, Throwable error) {
+            calls.add(name + " after " + method);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.apache.thrift.transport.TTransportException;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.thrift.NioSocketTransport;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioSocketTransportTest extends BaseTest {
+
+    @Test
+    public void echoSmallAndLargeReads() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+
+            Thread echo = new Thread(() -> {
+                try (Socket socket = server.accept(); InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            echo.setDaemon(true);
+            echo.start();
+
+            NioSocketTransport transport = NioSocketTransport.builder().host("localhost").port(server.getLocalPort()).socketTimeout(5000).bufferSize(1024).build();
+
+            transport.open();
+
+            try {
+                byte[] payload = new byte[100_000];
+                new Random(42).nextBytes(payload);
+
+                transport.write(payload, 0, payload.length);
+                transport.flush();
+
+                byte[] received = new byte[payload.length];
+
+                // both the small and the large read are served from the direct read buffer
+                transport.readAll(received, 0, 10);
+                transport.readAll(received, 10, received.length - 10);
+
+                assertArrayEquals(payload, received);
+            } finally {
+                transport.close();
+            }
+
+            assertFalse(transport.isOpen());
+        }
+    }
+
+    @Test
+    public void closeDuringRead() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+
+            NioSocketTransport transport = NioSocketTransport.builder().host("localhost").port(server.getLocalPort()).socketTimeout(10000).build();
+
+            transport.open();
+
+            Thread closer = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+
+                transport.close();
+            });
+            closer.setDaemon(true);
+            closer.start();
+
+            // the selector closing under the read surfaces as a transport failure, not an unchecked one
+            TTransportException e = assertThrows(TTransportException.class, () -> transport.read(new byte[1], 0, 1));
+
+            assertEquals(TTransportException.NOT_OPEN, e.getType());
+        }
+    }
+
+    @Test
+    public void readTimesOut() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+
+            NioSocketTransport transport = NioSocketTransport.builder().host("localhost").port(server.getLocalPort()).socketTimeout(200).build();
+
+            transport.open();
+
+            try {
+                TTransportException e = assertThrows(TTransportException.class, () -> transport.read(new byte[1], 0, 1));
+
+                assertEquals(TTransportException.TIMED_OUT, e.getType());
+            } finally {
+                transport.close();
+            }
+        }
+    }
+}
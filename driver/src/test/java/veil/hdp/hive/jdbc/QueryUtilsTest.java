@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.utils.QueryUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryUtilsTest extends BaseTest {
+
+    @Test
+    public void parseUseDatabase() {
+        assertEquals("sales", QueryUtils.parseUseDatabase("USE sales"));
+        assertEquals("sales", QueryUtils.parseUseDatabase("  use `sales`;  "));
+
+        assertNull(QueryUtils.parseUseDatabase("select * from users"));
+        assertNull(QueryUtils.parseUseDatabase("use sales; drop table x"));
+    }
+
+    @Test
+    public void parseSetKey() {
+        assertEquals("hive.exec.parallel", QueryUtils.parseSetKey("SET hive.exec.parallel=true"));
+        assertEquals("hivevar:region", QueryUtils.parseSetKey(" set hivevar:region = 'us'"));
+
+        assertNull(QueryUtils.parseSetKey("SET hive.exec.parallel"));
+        assertNull(QueryUtils.parseSetKey("SET ROLE admin"));
+        assertNull(QueryUtils.parseSetKey("SET"));
+    }
+
+    @Test
+    public void changesSession() {
+        assertTrue(QueryUtils.changesSession("use sales"));
+        assertTrue(QueryUtils.changesSession("SET hive.exec.parallel=true"));
+        assertTrue(QueryUtils.changesSession("add jar /tmp/udf.jar"));
+        assertTrue(QueryUtils.changesSession("CREATE TEMPORARY FUNCTION f AS 'com.example.F'"));
+
+        assertFalse(QueryUtils.changesSession("insert into t values (1)"));
+        assertFalse(QueryUtils.changesSession("SET ROLE admin"));
+    }
+}
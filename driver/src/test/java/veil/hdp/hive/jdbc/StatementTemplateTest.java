@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.test.BaseTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementTemplateTest extends BaseTest {
+
+    @Test
+    public void render() {
+        StatementTemplate template = StatementTemplate.builder().sql("select * from test where a = ? and b = ?").build();
+
+        assertEquals(2, template.getParameterCount());
+
+        StringBuilder builder = new StringBuilder();
+
+        assertEquals("select * from test where a = 1 and b = 'x'", template.render(new String[]{"1", "'x'"}, builder));
+        assertEquals("select * from test where a = 2 and b = ?", template.render(new String[]{"2", null}, builder));
+    }
+
+    @Test
+    public void quotedPlaceholders() {
+        StatementTemplate template = StatementTemplate.builder().sql("select '?', \"?\", `?`, 'it\\'s ?' from test where a = ?").build();
+
+        assertEquals(1, template.getParameterCount());
+        assertEquals("select '?', \"?\", `?`, 'it\\'s ?' from test where a = 3", template.render(new String[]{"3"}, new StringBuilder()));
+    }
+
+    @Test
+    public void noPlaceholders() {
+        String sql = "show tables";
+
+        StatementTemplate template = StatementTemplate.builder().sql(sql).build();
+
+        assertEquals(0, template.getParameterCount());
+        assertSame(sql, template.render(new String[0], new StringBuilder()));
+    }
+}
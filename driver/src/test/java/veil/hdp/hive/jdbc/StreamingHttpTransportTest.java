@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.http.StreamingHttpTransport;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.utils.HttpUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingHttpTransportTest extends BaseTest {
+
+    @Test
+    public void echoesLargeBodiesAcrossCalls() throws Exception {
+        HttpServer server = startEchoServer();
+
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+
+            StreamingHttpTransport transport = new StreamingHttpTransport("http://localhost:" + server.getAddress().getPort() + "/cliservice", client, 1024, null);
+
+            for (int size : new int[]{200_000, 10}) {
+                byte[] payload = new byte[size];
+                new Random(size).nextBytes(payload);
+
+                transport.write(payload, 0, payload.length);
+                transport.flush();
+
+                byte[] received = new byte[size];
+
+                transport.readAll(received, 0, size);
+
+                assertArrayEquals(payload, received);
+            }
+
+            transport.close();
+
+            assertFalse(transport.isOpen());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void requestBodyCanBeReadBack() throws Exception {
+        HttpServer server = startEchoServer();
+
+        byte[] payload = new byte[5000];
+        new Random(7).nextBytes(payload);
+
+        ByteArrayOutputStream seen = new ByteArrayOutputStream();
+
+        // stands in for retry, auth and wire logging code, which may read a repeatable entity before it is sent
+        HttpRequestInterceptor reader = (request, context) -> {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+
+            assertTrue(entity.isRepeatable());
+
+            seen.write(EntityUtils.toByteArray(entity));
+        };
+
+        try (CloseableHttpClient client = HttpClients.custom().addInterceptorFirst(reader).build()) {
+
+            StreamingHttpTransport transport = new StreamingHttpTransport("http://localhost:" + server.getAddress().getPort() + "/cliservice", client, 1024, null);
+
+            transport.write(payload, 0, payload.length);
+            transport.flush();
+
+            byte[] received = new byte[payload.length];
+
+            transport.readAll(received, 0, payload.length);
+
+            assertArrayEquals(payload, seen.toByteArray());
+            assertArrayEquals(payload, received);
+
+            transport.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void repliesReleaseTheirConnections() throws Exception {
+        HttpServer server = startEchoServer();
+
+        Properties properties = new Properties();
+        HiveDriverProperty.HTTP_POOL_MAX_PER_ROUTE.set(properties, 2);
+        HiveDriverProperty.THRIFT_TRANSPORT_TIMEOUT.set(properties, 2000);
+
+        try (CloseableHttpClient client = HttpUtils.buildClient(properties, HttpUtils.buildPoolingConnectionManager(properties), false)) {
+
+            List<StreamingHttpTransport> transports = new ArrayList<>();
+
+            for (int i = 0; i < 5; i++) {
+                transports.add(new StreamingHttpTransport("http://localhost:" + server.getAddress().getPort() + "/cliservice", client, 1024, null));
+            }
+
+            // like Thrift, read only the bytes of each reply and never the end of the stream; an unreleased reply would exhaust the route's pool
+            for (int size : new int[]{10, 5000}) {
+                for (StreamingHttpTransport transport : transports) {
+                    byte[] payload = new byte[size];
+                    new Random(size).nextBytes(payload);
+
+                    transport.write(payload, 0, payload.length);
+                    transport.flush();
+
+                    byte[] received = new byte[size];
+
+                    transport.readAll(received, 0, size);
+
+                    assertArrayEquals(payload, received);
+
+                    // a reply larger than the buffer is still streaming; the client releases it once the reply is deserialized
+                    transport.readEnd();
+                }
+            }
+
+            for (StreamingHttpTransport transport : transports) {
+                transport.close();
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer startEchoServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext("/cliservice", exchange -> {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+
+            exchange.sendResponseHeaders(200, body.size());
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        });
+
+        server.start();
+
+        return server;
+    }
+}
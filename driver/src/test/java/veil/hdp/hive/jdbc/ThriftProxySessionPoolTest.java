@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package veil.hdp.hive.jdbc;
+
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TServerSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.bindings.*;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.thrift.ThriftProxySessionPool;
+import veil.hdp.hive.jdbc.thrift.ThriftSession;
+import veil.hdp.hive.jdbc.thrift.ThriftTransportPool;
+import veil.hdp.hive.jdbc.utils.DriverUtils;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThriftProxySessionPoolTest extends BaseTest {
+
+    private final List<Map<String, String>> openSessionConfigs = new CopyOnWriteArrayList<>();
+
+    private TServer server;
+    private int port;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        TServerSocket serverSocket = new TServerSocket(0);
+        port = serverSocket.getServerSocket().getLocalPort();
+
+        TCLIService.Iface handler = (TCLIService.Iface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{TCLIService.Iface.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "OpenSession":
+                    TOpenSessionReq req = (TOpenSessionReq) args[0];
+
+                    openSessionConfigs.add(req.getConfiguration());
+
+                    TOpenSessionResp resp = new TOpenSessionResp(success(), req.getClient_protocol());
+                    resp.setSessionHandle(new TSessionHandle(new THandleIdentifier(handleBytes(), handleBytes())));
+
+                    return resp;
+                case "CloseSession":
+                    return new TCloseSessionResp(success());
+                case "GetInfo":
+                    return new TGetInfoResp(success(), TGetInfoValue.stringValue("fake"));
+                default:
+                    throw new TException(method.getName() + " is not supported by the fake server");
+            }
+        });
+
+        server = new TThreadPoolServer(new TThreadPoolServer.Args(serverSocket).processor(new TCLIService.Processor<>(handler)).protocolFactory(new TBinaryProtocol.Factory()));
+
+        Thread thread = new Thread(server::serve, "fake-hs2");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void idleCapPerUser() {
+        try (ThriftProxySessionPool pool = buildPool("idle-cap", 2, 10)) {
+            ThriftSession first = pool.borrow("alice");
+            ThriftSession second = pool.borrow("alice");
+            ThriftSession third = pool.borrow("alice");
+
+            pool.release(first);
+            pool.release(second);
+            pool.release(third);
+
+            assertEquals(2, pool.getIdleSessions());
+            assertEquals(2, pool.getTotalSessions());
+            assertEquals(1, pool.getSessionsDestroyed());
+            assertTrue(third.isClosed());
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedAcrossUsers() throws Exception {
+        try (ThriftProxySessionPool pool = buildPool("lru", 2, 2)) {
+            ThriftSession alice = pool.borrow("alice");
+            pool.release(alice);
+
+            Thread.sleep(5);
+
+            ThriftSession bob = pool.borrow("bob");
+            pool.release(bob);
+
+            // the pool is full of idle sessions; alice's was returned first
+            ThriftSession carol = pool.borrow("carol");
+
+            assertTrue(alice.isClosed());
+            assertFalse(bob.isClosed());
+
+            assertSame(bob, pool.borrow("bob"));
+            assertEquals(3, pool.getSessionsCreated());
+
+            pool.release(carol);
+        }
+    }
+
+    @Test
+    public void replacedTransportsDrain() {
+        try (ThriftProxySessionPool pool = buildPool("drain", 2, 10)) {
+            ThriftSession alice = pool.borrow("alice");
+            ThriftTransportPool oldTransports = alice.getTransportPool();
+
+            alice.getThriftTransport().close();
+
+            ThriftSession bob = pool.borrow("bob");
+
+            assertNotSame(oldTransports, bob.getTransportPool());
+            assertFalse(oldTransports.isClosed());
+
+            pool.release(alice);
+
+            assertTrue(oldTransports.isClosed());
+
+            pool.release(bob);
+        }
+    }
+
+    @Test
+    public void proxyUserSessionConfig() {
+        try (ThriftProxySessionPool pool = buildPool("config", 2, 10)) {
+            pool.release(pool.borrow("alice"));
+            pool.release(pool.borrow(null));
+        }
+
+        Map<String, String> proxied = openSessionConfigs.get(0);
+
+        assertEquals("alice", proxied.get("hive.server2.proxy.user"));
+        assertEquals("default", proxied.get("use:database"));
+        assertFalse(proxied.containsKey("set:hiveconf:hive.server2.proxy.user"));
+
+        assertFalse(openSessionConfigs.get(1).containsKey("hive.server2.proxy.user"));
+    }
+
+    private ThriftProxySessionPool buildPool(String name, int maxIdlePerUser, int maxPoolSize) {
+        Properties properties = new Properties();
+        HiveDriverProperty.HOST_NAME.set(properties, "localhost");
+        HiveDriverProperty.PORT_NUMBER.set(properties, port);
+        HiveDriverProperty.AUTHENTICATION_MODE.set(properties, AuthenticationMode.NOSASL.name());
+        HiveDriverProperty.KEEP_ALIVE_INTERVAL.set(properties, 0);
+
+        return ThriftProxySessionPool.builder()
+                .name(name + '-' + UUID.randomUUID())
+                .properties(DriverUtils.buildProperties("jdbc:hive2://localhost:" + port + "/default", properties))
+                .maxIdlePerUser(maxIdlePerUser)
+                .maxPoolSize(maxPoolSize)
+                .build();
+    }
+
+    private static TStatus success() {
+        return new TStatus(TStatusCode.SUCCESS_STATUS);
+    }
+
+    private static ByteBuffer handleBytes() {
+        UUID uuid = UUID.randomUUID();
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.flip();
+
+        return buffer;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2018 Timothy J Veil
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package veil.hdp.hive.jdbc;
+
+
+import org.junit.jupiter.api.Test;
+import veil.hdp.hive.jdbc.test.BaseTest;
+import veil.hdp.hive.jdbc.utils.WatchdogUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WatchdogUtilsTest extends BaseTest {
+
+    @Test
+    public void expires() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        WatchdogUtils.Watch watch = WatchdogUtils.watch(WatchdogUtils.deadline(10, TimeUnit.MILLISECONDS), latch::countDown);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(watch.isExpired());
+
+        watch.close();
+    }
+
+    @Test
+    public void closedBeforeDeadline() throws InterruptedException {
+        AtomicInteger expirations = new AtomicInteger();
+
+        WatchdogUtils.Watch watch = WatchdogUtils.watch(WatchdogUtils.deadline(100, TimeUnit.MILLISECONDS), expirations::incrementAndGet);
+
+        watch.close();
+
+        Thread.sleep(300);
+
+        assertFalse(watch.isExpired());
+        assertEquals(0, expirations.get());
+    }
+}